@@ -0,0 +1,49 @@
+package io.typst.inventory.benchmark;
+
+import io.typst.inventory.InventoryAdapter;
+import io.typst.inventory.ListInventoryAdapter;
+import io.typst.inventory.MapInventoryAdapter;
+import io.typst.inventory.SubInventoryAdapter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Backing stores under measurement. {@code SUB} slices every slot of a map-backed
+ * delegate, so it measures the view overhead on top of {@code MAP}.
+ */
+public enum AdapterKind {
+    MAP,
+    LIST,
+    SUB;
+
+    public InventoryAdapter<BenchItem> create(List<BenchItem> contents) {
+        switch (this) {
+            case MAP: {
+                return new MapInventoryAdapter<>(toMap(contents), BenchItem.EMPTY);
+            }
+            case LIST: {
+                return new ListInventoryAdapter<>(new ArrayList<>(contents), BenchItem.EMPTY);
+            }
+            case SUB: {
+                MapInventoryAdapter<BenchItem> delegate = new MapInventoryAdapter<>(toMap(contents), BenchItem.EMPTY);
+                List<Integer> slots = IntStream.range(0, contents.size()).boxed().collect(Collectors.toList());
+                return new SubInventoryAdapter<>(delegate, BenchItem.EMPTY, slots);
+            }
+            default:
+                throw new IllegalStateException("Unknown adapter kind: " + this);
+        }
+    }
+
+    private static Map<Integer, BenchItem> toMap(List<BenchItem> contents) {
+        Map<Integer, BenchItem> map = new LinkedHashMap<>();
+        for (int i = 0; i < contents.size(); i++) {
+            map.put(i, contents.get(i));
+        }
+        return map;
+    }
+}
@@ -0,0 +1,49 @@
+package io.typst.inventory.benchmark;
+
+import java.util.Objects;
+
+public class BenchItem {
+    public static final BenchItem EMPTY = new BenchItem("air", 0, 64);
+
+    private final String id;
+    private int amount;
+    private final int maxStack;
+
+    public BenchItem(String id, int amount, int maxStack) {
+        this.id = id;
+        this.amount = amount;
+        this.maxStack = maxStack;
+    }
+
+    public BenchItem(BenchItem item) {
+        this(item.id, item.amount, item.maxStack);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public void setAmount(int amount) {
+        this.amount = amount;
+    }
+
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        BenchItem benchItem = (BenchItem) o;
+        return amount == benchItem.amount && maxStack == benchItem.maxStack && Objects.equals(id, benchItem.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, amount, maxStack);
+    }
+}
@@ -0,0 +1,54 @@
+package io.typst.inventory.benchmark;
+
+import io.typst.inventory.ItemKey;
+import io.typst.inventory.ItemStackOps;
+
+public class BenchItemOps implements ItemStackOps<BenchItem> {
+    public static final BenchItemOps INSTANCE = new BenchItemOps();
+    public static final ItemKey EMPTY_KEY = new ItemKey("air", "");
+
+    @Override
+    public boolean isEmpty(BenchItem item) {
+        return item == null || item.getAmount() <= 0 || item.getId().equals(BenchItem.EMPTY.getId());
+    }
+
+    @Override
+    public ItemKey getKeyFrom(BenchItem item) {
+        return new ItemKey(item.getId(), "");
+    }
+
+    @Override
+    public int getAmount(BenchItem item) {
+        return item.getAmount();
+    }
+
+    @Override
+    public void setAmount(BenchItem item, int amount) {
+        item.setAmount(amount);
+    }
+
+    @Override
+    public int getMaxStackSize(BenchItem item) {
+        return item.getMaxStack();
+    }
+
+    @Override
+    public BenchItem copy(BenchItem item) {
+        return new BenchItem(item);
+    }
+
+    @Override
+    public BenchItem create(ItemKey key) {
+        return new BenchItem(key.getId(), 1, 64);
+    }
+
+    @Override
+    public BenchItem empty() {
+        return BenchItem.EMPTY;
+    }
+
+    @Override
+    public boolean isSimilar(BenchItem a, BenchItem b) {
+        return a.getId().equals(b.getId());
+    }
+}
@@ -0,0 +1,83 @@
+package io.typst.inventory.benchmark;
+
+import io.typst.inventory.ConcurrentInventoryAdapter;
+import io.typst.inventory.EntityOps;
+import io.typst.inventory.InventoryAdapter;
+import io.typst.inventory.InventoryMutator;
+import io.typst.inventory.ItemKey;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mixed read/write contention on one shared inventory: three reader threads count items
+ * while one writer thread gives and takes a stack.
+ *
+ * <p>{@code CONCURRENT} uses {@link ConcurrentInventoryAdapter} with optimistic commits;
+ * {@code SYNCHRONIZED} guards a {@link AdapterKind#LIST} adapter with one global monitor,
+ * which is what callers have to do today.</p>
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConcurrentInventoryBenchmark {
+    public enum Guard {
+        CONCURRENT,
+        SYNCHRONIZED
+    }
+
+    @Param({"54", "1000"})
+    int size;
+    @Param({"CONCURRENT", "SYNCHRONIZED"})
+    Guard guard;
+
+    InventoryMutator<BenchItem, Blackhole> mutator;
+    BenchItem item;
+    ItemKey key;
+    final Object monitor = new Object();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        List<BenchItem> contents = InventoryFixture.contents(size, 0.5, 4);
+        InventoryAdapter<BenchItem> inventory;
+        if (guard == Guard.CONCURRENT) {
+            ConcurrentInventoryAdapter<BenchItem> concurrent = new ConcurrentInventoryAdapter<>(size, BenchItem.EMPTY);
+            for (int slot = 0; slot < size; slot++) {
+                concurrent.set(slot, contents.get(slot));
+            }
+            inventory = concurrent;
+        } else {
+            inventory = AdapterKind.LIST.create(contents);
+        }
+        EntityOps<Blackhole, BenchItem> entityOps = Blackhole::consume;
+        mutator = new InventoryMutator<>(inventory, BenchItemOps.INSTANCE, entityOps, BenchItemOps.EMPTY_KEY);
+        item = InventoryFixture.requests(1, 4, 16).get(0);
+        key = InventoryFixture.kindKey(0);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public int read() {
+        if (guard == Guard.CONCURRENT) {
+            return mutator.toSnapshotView().countItems(key);
+        }
+        synchronized (monitor) {
+            return mutator.toSnapshotView().countItems(key);
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public boolean write() {
+        if (guard == Guard.CONCURRENT) {
+            return mutator.giveItem(item) && mutator.takeItems(item);
+        }
+        synchronized (monitor) {
+            return mutator.giveItem(item) && mutator.takeItems(item);
+        }
+    }
+}
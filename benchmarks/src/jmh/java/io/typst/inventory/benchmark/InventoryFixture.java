@@ -0,0 +1,53 @@
+package io.typst.inventory.benchmark;
+
+import io.typst.inventory.ItemKey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic inventory contents and request lists shared by the benchmarks.
+ */
+public final class InventoryFixture {
+    private static final long SEED = 0x5EEDL;
+
+    private InventoryFixture() {
+    }
+
+    public static String kindId(int kind) {
+        return "item_" + kind;
+    }
+
+    public static ItemKey kindKey(int kind) {
+        return new ItemKey(kindId(kind), "");
+    }
+
+    /**
+     * Fills {@code fillRatio} of {@code size} slots with stacks of {@code kinds} distinct items,
+     * leaving the rest empty.
+     */
+    public static List<BenchItem> contents(int size, double fillRatio, int kinds) {
+        Random random = new Random(SEED);
+        List<BenchItem> items = new ArrayList<>(size);
+        for (int slot = 0; slot < size; slot++) {
+            if (random.nextDouble() < fillRatio) {
+                items.add(new BenchItem(kindId(random.nextInt(kinds)), 1 + random.nextInt(64), 64));
+            } else {
+                items.add(BenchItem.EMPTY);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Builds {@code count} request items cycling through the {@code kinds} item kinds.
+     */
+    public static List<BenchItem> requests(int count, int kinds, int amount) {
+        List<BenchItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(new BenchItem(kindId(i % kinds), amount, 64));
+        }
+        return items;
+    }
+}
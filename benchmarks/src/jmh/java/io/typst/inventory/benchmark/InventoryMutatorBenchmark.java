@@ -0,0 +1,51 @@
+package io.typst.inventory.benchmark;
+
+import io.typst.inventory.EntityOps;
+import io.typst.inventory.InventoryMutator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link InventoryMutator#giveItemOrDrop(Object, Object)} including the commit.
+ *
+ * <p>The inventory is rebuilt before every invocation so each call observes the same
+ * fill state; the rebuild is excluded from the measurement but adds JMH timing noise
+ * on the smallest sizes.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class InventoryMutatorBenchmark {
+    @Param({"9", "36", "54", "1000", "10000"})
+    int size;
+    @Param({"MAP", "LIST", "SUB"})
+    AdapterKind adapter;
+    @Param({"0.25", "0.9"})
+    double fillRatio;
+    @Param({"1", "16"})
+    int kinds;
+
+    List<BenchItem> contents;
+    BenchItem item;
+    InventoryMutator<BenchItem, Blackhole> mutator;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        contents = InventoryFixture.contents(size, fillRatio, kinds);
+        item = InventoryFixture.requests(1, kinds, 16).get(0);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        EntityOps<Blackhole, BenchItem> entityOps = Blackhole::consume;
+        mutator = new InventoryMutator<>(adapter.create(contents), BenchItemOps.INSTANCE, entityOps, BenchItemOps.EMPTY_KEY);
+    }
+
+    @Benchmark
+    public void giveItemOrDrop(Blackhole blackhole) {
+        mutator.giveItemOrDrop(blackhole, item);
+    }
+}
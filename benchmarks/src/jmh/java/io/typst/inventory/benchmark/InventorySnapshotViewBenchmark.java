@@ -0,0 +1,71 @@
+package io.typst.inventory.benchmark;
+
+import io.typst.inventory.InventoryPatch;
+import io.typst.inventory.InventorySnapshotView;
+import io.typst.inventory.ItemKey;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the read-only planning paths of {@link InventorySnapshotView}.
+ *
+ * <p>Run with {@code gradle :inventory-benchmarks:jmh}; the gc profiler is enabled by
+ * default so {@code gc.alloc.rate.norm} reports bytes allocated per operation.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class InventorySnapshotViewBenchmark {
+    @Param({"9", "36", "54", "1000", "10000"})
+    int size;
+    @Param({"MAP", "LIST", "SUB"})
+    AdapterKind adapter;
+    @Param({"0.25", "0.9"})
+    double fillRatio;
+    @Param({"1", "16"})
+    int kinds;
+    @Param({"1", "10", "50"})
+    int itemsPerCall;
+
+    InventorySnapshotView<BenchItem> view;
+    List<BenchItem> requests;
+    BenchItem single;
+    ItemKey key;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        List<BenchItem> contents = InventoryFixture.contents(size, fillRatio, kinds);
+        view = new InventorySnapshotView<>(adapter.create(contents), BenchItemOps.INSTANCE, BenchItemOps.EMPTY_KEY);
+        requests = InventoryFixture.requests(itemsPerCall, kinds, 16);
+        single = requests.get(0);
+        key = InventoryFixture.kindKey(0);
+    }
+
+    @Benchmark
+    public InventoryPatch<BenchItem> takeItems() {
+        return view.takeItems(requests);
+    }
+
+    @Benchmark
+    public InventoryPatch<BenchItem> giveItems() {
+        return view.giveItems(requests);
+    }
+
+    @Benchmark
+    public Map<Integer, Integer> findSpaces() {
+        return view.findSpaces(single);
+    }
+
+    @Benchmark
+    public Map<Integer, Integer> findSlots() {
+        return view.findSlots(single);
+    }
+
+    @Benchmark
+    public int countItems() {
+        return view.countItems(key);
+    }
+}
@@ -1,6 +1,7 @@
 package io.typst.inventory.bukkit;
 
 import io.typst.inventory.InventoryAdapter;
+import org.bukkit.Material;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.jetbrains.annotations.NotNull;
@@ -10,9 +11,25 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.stream.IntStream;
 
+/**
+ * {@link InventoryAdapter} over a live Bukkit {@link Inventory}.
+ *
+ * <p>Full traversals read {@link Inventory#getContents()} once instead of calling
+ * {@link Inventory#getItem(int)} per slot. Writes always go slot by slot: the server's
+ * {@code setContents} sets every slot one at a time as well, so it would not send fewer
+ * updates, and a slot that cannot be written is skipped the same way for every batch.</p>
+ *
+ * <p>The inventory can be changed by the server at any time, so {@link #getVersion()} keeps a
+ * copy of the contents it was taken at, and {@link #isUnchangedSince(long)} compares the
+ * current contents against it slot by slot with {@link ItemStack#isSimilar(ItemStack)} and
+ * the amount. Only the latest version is kept: a version is accepted only by the adapter that
+ * returned it, and only until it returns another one.</p>
+ */
 public class BukkitInventoryAdapter implements InventoryAdapter<ItemStack> {
     private final Inventory inventory;
     private final ItemStack emptyItem;
+    private long version = 0;
+    private ItemStack[] versionContents = null;
 
     public BukkitInventoryAdapter(Inventory inventory, ItemStack emptyItem) {
         this.inventory = inventory;
@@ -37,10 +54,79 @@ public class BukkitInventoryAdapter implements InventoryAdapter<ItemStack> {
         }
     }
 
+    /**
+     * {@link Inventory#getContents()} and {@link Inventory#getItem(int)} return mirrors of the
+     * server's slots.
+     */
+    @Override
+    public boolean isLive() {
+        return true;
+    }
+
+    /**
+     * Returns the current version, starting a new one if the contents changed since the
+     * last call.
+     */
+    @Override
+    public long getVersion() {
+        ItemStack[] contents = inventory.getContents();
+        if (versionContents == null || !sameContents(versionContents, contents)) {
+            // the server hands out mirrors of its slots, which would change along with them
+            for (int slot = 0; slot < contents.length; slot++) {
+                contents[slot] = contents[slot] != null ? contents[slot].clone() : null;
+            }
+            versionContents = contents;
+            version++;
+        }
+        return version;
+    }
+
+    @Override
+    public boolean isUnchangedSince(long version) {
+        return versionContents != null
+                && this.version == version
+                && sameContents(versionContents, inventory.getContents());
+    }
+
+    private static boolean sameContents(ItemStack[] a, ItemStack[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        for (int slot = 0; slot < a.length; slot++) {
+            boolean aEmpty = isEmpty(a[slot]);
+            boolean bEmpty = isEmpty(b[slot]);
+            if (aEmpty || bEmpty) {
+                if (aEmpty != bEmpty) {
+                    return false;
+                }
+            } else if (a[slot].getAmount() != b[slot].getAmount() || !a[slot].isSimilar(b[slot])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isEmpty(ItemStack item) {
+        return item == null || item.getType() == Material.AIR || item.getAmount() <= 0;
+    }
+
+    @Override
+    public boolean forEachSlot(SlotVisitor<ItemStack> visitor) {
+        ItemStack[] contents = inventory.getContents();
+        for (int slot = 0; slot < contents.length; slot++) {
+            ItemStack item = contents[slot];
+            if (!visitor.visit(slot, item != null ? item : emptyItem)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public @NotNull Iterator<Map.Entry<Integer, ItemStack>> iterator() {
-        return IntStream.range(0, inventory.getSize())
-                .mapToObj(slot -> (Map.Entry<Integer, ItemStack>) new AbstractMap.SimpleEntry<>(slot, get(slot)))
+        ItemStack[] contents = inventory.getContents();
+        return IntStream.range(0, contents.length)
+                .mapToObj(slot -> (Map.Entry<Integer, ItemStack>) new AbstractMap.SimpleEntry<>(slot, contents[slot] != null ? contents[slot] : emptyItem))
                 .iterator();
     }
 }
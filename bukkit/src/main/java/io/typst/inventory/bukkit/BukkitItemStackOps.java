@@ -8,10 +8,19 @@ import org.bukkit.NamespacedKey;
 import org.bukkit.Registry;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.util.io.BukkitObjectInputStream;
+import org.bukkit.util.io.BukkitObjectOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 
 public class BukkitItemStackOps implements ItemStackOps<ItemStack> {
     public static final BukkitItemStackOps INSTANCE = new BukkitItemStackOps();
     private static final ItemStack EMPTY_ITEM = new ItemStack(Material.AIR);
+    private static final ItemKey[] PLAIN_KEYS = new ItemKey[Material.values().length];
 
     @Override
     public boolean isEmpty(ItemStack item) {
@@ -20,12 +29,31 @@ public class BukkitItemStackOps implements ItemStackOps<ItemStack> {
 
     @Override
     public ItemKey getKeyFrom(ItemStack item) {
+        Material type = item.getType();
+        if (!item.hasItemMeta()) {
+            return getPlainKey(type);
+        }
         ItemMeta meta = item.getItemMeta();
         String name = meta != null && meta.hasDisplayName()
                 ? meta.getDisplayName()
                 : "";
-        NamespacedKey key = item.getType().getKey();
-        return new ItemKey(key.toString(), name);
+        return name.isEmpty()
+                ? getPlainKey(type)
+                : new ItemKey(type.getKey().toString(), name);
+    }
+
+    /**
+     * Interned key of a material without a display name. Racing threads may both
+     * compute it, which is harmless as {@link ItemKey} is immutable.
+     */
+    private static ItemKey getPlainKey(Material type) {
+        ItemKey key = PLAIN_KEYS[type.ordinal()];
+        if (key == null) {
+            NamespacedKey namespacedKey = type.getKey();
+            key = new ItemKey(namespacedKey.toString(), "");
+            PLAIN_KEYS[type.ordinal()] = key;
+        }
+        return key;
     }
 
     @Override
@@ -78,4 +106,50 @@ public class BukkitItemStackOps implements ItemStackOps<ItemStack> {
     public boolean isSimilar(ItemStack a, ItemStack b) {
         return a.isSimilar(b);
     }
+
+    /**
+     * Hashes the type only: reading the meta, or the durability stored in it, clones the meta
+     * per call. Stacks of one type with different meta share a bucket and are told apart by
+     * {@link ItemStack#isSimilar(ItemStack)}.
+     */
+    @Override
+    public int similarityHash(ItemStack item) {
+        return item.getType().ordinal();
+    }
+
+    /**
+     * Stacks with item meta are written as a serialized {@link ItemStack}; plain stacks
+     * need nothing beyond their key and amount.
+     */
+    @Override
+    public void writePayload(ItemStack item, ByteBuffer out) {
+        if (!item.hasItemMeta()) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BukkitObjectOutputStream stream = new BukkitObjectOutputStream(bytes)) {
+            stream.writeObject(item);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        out.put(bytes.toByteArray());
+    }
+
+    @Override
+    public ItemStack readPayload(ItemKey key, int amount, ByteBuffer payload) {
+        if (!payload.hasRemaining()) {
+            return ItemStackOps.super.readPayload(key, amount, payload);
+        }
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        try (BukkitObjectInputStream stream = new BukkitObjectInputStream(new ByteArrayInputStream(bytes))) {
+            ItemStack item = (ItemStack) stream.readObject();
+            item.setAmount(amount);
+            return item;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } catch (ClassNotFoundException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
 }
@@ -46,6 +46,10 @@ public class BukkitItemStacks {
         return BukkitItemStackOps.INSTANCE.collapseItems(items);
     }
 
+    public static List<ItemStack> collapseItems(Collection<ItemStack> items, boolean parallel) {
+        return BukkitItemStackOps.INSTANCE.collapseItems(items, parallel);
+    }
+
     public static ItemStack getEmpty() {
         return BukkitItemStackOps.INSTANCE.empty();
     }
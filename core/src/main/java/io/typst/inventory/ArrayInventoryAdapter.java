@@ -0,0 +1,108 @@
+package io.typst.inventory;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Fixed-size adapter backed by a plain array, covering the dense slot range
+ * {@code [0, size)} with O(1) reads and writes.
+ *
+ * <p>Used as the backing store for copies made by {@link InventoryMutator#copy()} and
+ * for decoded or concurrent snapshots when the source slots are dense. A read-only
+ * instance rejects {@link #set(int, Object)} like {@link Map#copyOf(Map)} does.</p>
+ *
+ * <p>{@link #getVersion()} is a counter of writes made through this adapter.</p>
+ */
+public class ArrayInventoryAdapter<A> implements InventoryAdapter<A> {
+    private final Object[] items;
+    private final A emptyItem;
+    private final boolean readOnly;
+    private long modCount = 0;
+
+    public ArrayInventoryAdapter(int size, A emptyItem) {
+        this(filled(size, emptyItem), emptyItem, false);
+    }
+
+    ArrayInventoryAdapter(Object[] items, A emptyItem, boolean readOnly) {
+        this.items = items;
+        this.emptyItem = emptyItem;
+        this.readOnly = readOnly;
+    }
+
+    private static Object[] filled(int size, Object emptyItem) {
+        Object[] items = new Object[size];
+        Arrays.fill(items, emptyItem);
+        return items;
+    }
+
+    public int size() {
+        return items.length;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public A get(int slot) {
+        if (slot < 0 || slot >= items.length) {
+            return emptyItem;
+        }
+        A item = (A) items[slot];
+        return item != null ? item : emptyItem;
+    }
+
+    @Override
+    public void set(int slot, A item) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Read-only inventory");
+        }
+        if (slot < 0 || slot >= items.length) {
+            throw new IndexOutOfBoundsException("Slot " + slot + " out of bounds for size " + items.length);
+        }
+        items[slot] = item;
+        modCount++;
+    }
+
+    @Override
+    public long getVersion() {
+        return modCount;
+    }
+
+    @Override
+    public boolean forEachSlot(SlotVisitor<A> visitor) {
+        for (int slot = 0; slot < items.length; slot++) {
+            if (!visitor.visit(slot, get(slot))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public @NotNull Iterator<Map.Entry<Integer, A>> iterator() {
+        return new Iterator<>() {
+            private int slot = 0;
+
+            @Override
+            public boolean hasNext() {
+                return slot < items.length;
+            }
+
+            @Override
+            public Map.Entry<Integer, A> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int current = slot++;
+                return new AbstractMap.SimpleImmutableEntry<>(current, get(current));
+            }
+        };
+    }
+}
@@ -0,0 +1,195 @@
+package io.typst.inventory;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Thread-safe fixed-size adapter over the dense slot range {@code [0, size)}, for virtual
+ * inventories written from several threads.
+ *
+ * <p>Reads are lock-free volatile reads of a single slot. Writes lock the stripe of each
+ * slot they touch, always in ascending stripe order, so {@link #setItems(Map)} and
+ * {@link #compareAndSetItems(InventoryAdapter, Map)} apply a whole batch atomically with
+ * respect to other writers while writers to disjoint stripes run in parallel.</p>
+ *
+ * <p>{@link InventoryMutator} plans against a {@link #snapshot()} and commits with
+ * {@link #compareAndSetItems(InventoryAdapter, Map)}, re-planning if a touched slot was
+ * replaced in between. Slots are compared by identity, so stored items must not be
+ * mutated in place. {@link #getVersion()} counts writes, and
+ * {@link InventoryMutator#commitIfUnchanged(InventoryPatch, long)} commits with
+ * {@link #compareAndSetItems(long, Map)}. {@link #setItems(Map)} writes unconditionally.</p>
+ */
+public class ConcurrentInventoryAdapter<A> implements InventoryAdapter<A> {
+    private static final int DEFAULT_STRIPES = 16;
+
+    private final AtomicReferenceArray<A> items;
+    private final A emptyItem;
+    private final ReentrantLock[] locks;
+    private final AtomicLong modCount = new AtomicLong();
+
+    public ConcurrentInventoryAdapter(int size, A emptyItem) {
+        this(size, emptyItem, DEFAULT_STRIPES);
+    }
+
+    public ConcurrentInventoryAdapter(int size, A emptyItem, int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Stripes must be positive: " + stripes);
+        }
+        this.items = new AtomicReferenceArray<>(size);
+        this.emptyItem = emptyItem;
+        this.locks = new ReentrantLock[Math.min(stripes, Math.max(size, 1))];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        for (int slot = 0; slot < size; slot++) {
+            items.set(slot, emptyItem);
+        }
+    }
+
+    public int size() {
+        return items.length();
+    }
+
+    @Override
+    public A get(int slot) {
+        if (slot < 0 || slot >= items.length()) {
+            return emptyItem;
+        }
+        A item = items.get(slot);
+        return item != null ? item : emptyItem;
+    }
+
+    @Override
+    public void set(int slot, A item) {
+        checkSlot(slot);
+        ReentrantLock lock = locks[slot % locks.length];
+        lock.lock();
+        try {
+            items.set(slot, item);
+            modCount.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setItems(Map<Integer, A> items) {
+        compareAndSetItems(null, items);
+    }
+
+    /**
+     * Writes {@code items} only if every slot among them still holds the same instance as
+     * in {@code expected}, all under the locks of the touched stripes.
+     *
+     * @param expected the adapter the items were planned against, or {@code null} to write unconditionally
+     * @param items    items by slot
+     * @return {@code true} if the items were written
+     */
+    public boolean compareAndSetItems(InventoryAdapter<A> expected, Map<Integer, A> items) {
+        if (items.isEmpty()) {
+            return true;
+        }
+        BitSet stripes = new BitSet(locks.length);
+        for (Integer slot : items.keySet()) {
+            checkSlot(slot);
+            stripes.set(slot % locks.length);
+        }
+        return write(stripes, items, () -> {
+            if (expected != null) {
+                for (Integer slot : items.keySet()) {
+                    if (get(slot) != expected.get(slot)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Writes {@code items} only if {@link #getVersion()} is still {@code expectedVersion},
+     * holding every stripe lock so that no other write can happen in between.
+     *
+     * @param expectedVersion the version the items were planned at
+     * @param items           items by slot
+     * @return {@code true} if the version matched and the items were written
+     */
+    public boolean compareAndSetItems(long expectedVersion, Map<Integer, A> items) {
+        for (Integer slot : items.keySet()) {
+            checkSlot(slot);
+        }
+        BitSet stripes = new BitSet(locks.length);
+        stripes.set(0, locks.length);
+        return write(stripes, items, () -> modCount.get() == expectedVersion);
+    }
+
+    private boolean write(BitSet stripes, Map<Integer, A> items, BooleanSupplier precondition) {
+        int locked = 0;
+        try {
+            for (int stripe = stripes.nextSetBit(0); stripe >= 0; stripe = stripes.nextSetBit(stripe + 1)) {
+                locks[stripe].lock();
+                locked++;
+            }
+            if (!precondition.getAsBoolean()) {
+                return false;
+            }
+            if (!items.isEmpty()) {
+                items.forEach(this.items::set);
+                modCount.incrementAndGet();
+            }
+            return true;
+        } finally {
+            for (int stripe = stripes.nextSetBit(0); stripe >= 0 && locked > 0; stripe = stripes.nextSetBit(stripe + 1)) {
+                locks[stripe].unlock();
+                locked--;
+            }
+        }
+    }
+
+    /**
+     * Copies the current slot references into a read-only {@link ArrayInventoryAdapter}.
+     * Each slot is read atomically, but slots written concurrently may be observed from
+     * different batches; {@link #compareAndSetItems(InventoryAdapter, Map)} detects that
+     * for the slots a plan touches.
+     */
+    public ArrayInventoryAdapter<A> snapshot() {
+        Object[] copied = new Object[items.length()];
+        for (int slot = 0; slot < copied.length; slot++) {
+            copied[slot] = get(slot);
+        }
+        return new ArrayInventoryAdapter<>(copied, emptyItem, true);
+    }
+
+    @Override
+    public long getVersion() {
+        return modCount.get();
+    }
+
+    @Override
+    public boolean forEachSlot(SlotVisitor<A> visitor) {
+        for (int slot = 0; slot < items.length(); slot++) {
+            if (!visitor.visit(slot, get(slot))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public @NotNull Iterator<Map.Entry<Integer, A>> iterator() {
+        return snapshot().iterator();
+    }
+
+    private void checkSlot(int slot) {
+        if (slot < 0 || slot >= items.length()) {
+            throw new IndexOutOfBoundsException("Slot " + slot + " out of bounds for size " + items.length());
+        }
+    }
+}
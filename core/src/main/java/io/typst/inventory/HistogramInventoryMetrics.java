@@ -0,0 +1,141 @@
+package io.typst.inventory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe in-memory {@link InventoryMetrics} that keeps, per operation name, totals and a
+ * latency histogram with power-of-two nanosecond buckets. Recording allocates nothing once an
+ * operation name has been seen.
+ *
+ * <pre>{@code
+ * HistogramInventoryMetrics metrics = new HistogramInventoryMetrics();
+ * InventoryMutator<ItemStack, Player> mutator = BukkitInventories.from(player).withMetrics(metrics);
+ * // later
+ * metrics.snapshot().forEach((operation, summary) -> log(operation, summary.getCount(), summary.getPercentileNanos(0.99)));
+ * }</pre>
+ */
+public class HistogramInventoryMetrics implements InventoryMetrics {
+    private static final int BUCKETS = 64;
+
+    private final ConcurrentMap<String, Histogram> operations = new ConcurrentHashMap<>();
+
+    @Override
+    public void record(String operation, long nanos, long slotsScanned, long copies, int patchSize) {
+        operations.computeIfAbsent(operation, name -> new Histogram()).add(nanos, slotsScanned, copies, patchSize);
+    }
+
+    /**
+     * @return the current summaries by operation name, sorted by name
+     */
+    public Map<String, Summary> snapshot() {
+        Map<String, Summary> summaries = new TreeMap<>();
+        operations.forEach((operation, histogram) -> summaries.put(operation, histogram.summarize()));
+        return summaries;
+    }
+
+    public void reset() {
+        operations.clear();
+    }
+
+    /**
+     * Totals of one operation. Samples recorded while the summary is taken may be partially included.
+     */
+    public static final class Summary {
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long slotsScanned;
+        private final long copies;
+        private final long slotsWritten;
+        private final long[] latencyBuckets;
+
+        private Summary(long count, long totalNanos, long maxNanos, long slotsScanned, long copies, long slotsWritten, long[] latencyBuckets) {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.slotsScanned = slotsScanned;
+            this.copies = copies;
+            this.slotsWritten = slotsWritten;
+            this.latencyBuckets = latencyBuckets;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getSlotsScanned() {
+            return slotsScanned;
+        }
+
+        public long getCopies() {
+            return copies;
+        }
+
+        public long getSlotsWritten() {
+            return slotsWritten;
+        }
+
+        public long getMeanNanos() {
+            return count > 0 ? totalNanos / count : 0;
+        }
+
+        /**
+         * @param percentile between 0 and 1
+         * @return an upper bound of the latency at {@code percentile}, precise to a power of two
+         */
+        public long getPercentileNanos(double percentile) {
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int bucket = 0; bucket < latencyBuckets.length; bucket++) {
+                seen += latencyBuckets[bucket];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(bucket >= BUCKETS - 2 ? Long.MAX_VALUE : (1L << (bucket + 1)) - 1, maxNanos);
+                }
+            }
+            return 0;
+        }
+    }
+
+    private static final class Histogram {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder slotsScanned = new LongAdder();
+        private final LongAdder copies = new LongAdder();
+        private final LongAdder slotsWritten = new LongAdder();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        private void add(long nanos, long scanned, long copied, int written) {
+            long latency = Math.max(nanos, 0);
+            count.increment();
+            totalNanos.add(latency);
+            maxNanos.accumulate(latency);
+            slotsScanned.add(scanned);
+            copies.add(copied);
+            slotsWritten.add(written);
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(latency | 1));
+        }
+
+        private Summary summarize() {
+            long[] latencyBuckets = new long[BUCKETS];
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                latencyBuckets[bucket] = buckets.get(bucket);
+            }
+            return new Summary(count.sum(), totalNanos.sum(), maxNanos.get(), slotsScanned.sum(), copies.sum(), slotsWritten.sum(), latencyBuckets);
+        }
+    }
+}
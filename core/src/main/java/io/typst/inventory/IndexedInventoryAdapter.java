@@ -0,0 +1,266 @@
+package io.typst.inventory;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Wraps an {@link InventoryAdapter} and maintains an {@link ItemKey} index of its contents:
+ * the total amount per key, the slots holding each key, the slots holding a partial
+ * stack of each key and the empty slots.
+ *
+ * <p>The index is built lazily on the first query after wrapping (or after
+ * {@link #invalidateAll()}) and then updated slot by slot on every {@link #set(int, Object)},
+ * so it stays exact across {@link InventoryMutator} commits. Changes made to the delegate
+ * directly (or by mutating a stored item in place) are not observed; call
+ * {@link #invalidate(int)} or {@link #invalidateAll()} afterwards. Slots must be non-negative.</p>
+ *
+ * <p>The index answers the optional {@link InventoryAdapter} lookups, so that
+ * {@link InventorySnapshotView#countItems(ItemKey)}, {@link InventorySnapshotView#hasItems(Object)}
+ * and the item/key variants of {@code findSpaces} skip their scans; they assume that similar
+ * items share a key. Spaces found through the index are reported in ascending slot order, the
+ * order of a scan over a delegate that visits its slots in ascending order.</p>
+ */
+public class IndexedInventoryAdapter<A> implements InventoryAdapter<A> {
+    private static final BitSet EMPTY_SLOTS = new BitSet();
+    private final InventoryAdapter<A> delegate;
+    private final ItemStackOps<A> itemOps;
+    private final Map<ItemKey, Integer> totals = new HashMap<>();
+    private final Map<ItemKey, BitSet> slotsByKey = new HashMap<>();
+    private final Map<Integer, ItemKey> keyBySlot = new HashMap<>();
+    private final Map<Integer, Integer> amountBySlot = new HashMap<>();
+    private final Map<ItemKey, BitSet> partialSlotsByKey = new HashMap<>();
+    private final BitSet emptySlots = new BitSet();
+    private boolean indexed = false;
+
+    public IndexedInventoryAdapter(InventoryAdapter<A> delegate, ItemStackOps<A> itemOps) {
+        this.delegate = delegate;
+        this.itemOps = itemOps;
+    }
+
+    public InventoryAdapter<A> getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public A get(int slot) {
+        return delegate.get(slot);
+    }
+
+    @Override
+    public void set(int slot, A item) {
+        delegate.set(slot, item);
+        if (indexed) {
+            unindex(slot);
+            index(slot, item);
+        }
+    }
+
+    @Override
+    public void setItems(Map<Integer, A> items) {
+        delegate.setItems(items);
+        if (indexed) {
+            items.forEach((slot, item) -> {
+                unindex(slot);
+                index(slot, item);
+            });
+        }
+    }
+
+    @Override
+    public long getVersion() {
+        return delegate.getVersion();
+    }
+
+    @Override
+    public boolean isUnchangedSince(long version) {
+        return delegate.isUnchangedSince(version);
+    }
+
+    @Override
+    public boolean isLive() {
+        return delegate.isLive();
+    }
+
+    @Override
+    public boolean forEachSlot(SlotVisitor<A> visitor) {
+        return delegate.forEachSlot(visitor);
+    }
+
+    @Override
+    public @NotNull Iterator<Map.Entry<Integer, A>> iterator() {
+        return delegate.iterator();
+    }
+
+    /**
+     * @return the total amount of items with the given key
+     */
+    @Override
+    public int count(ItemKey key) {
+        ensureIndexed();
+        return totals.getOrDefault(key, 0);
+    }
+
+    /**
+     * @return a copy of the slots holding items with the given key, in ascending order
+     */
+    public BitSet slotsOf(ItemKey key) {
+        ensureIndexed();
+        BitSet slots = slotsByKey.get(key);
+        return slots != null ? (BitSet) slots.clone() : new BitSet();
+    }
+
+    /**
+     * Re-reads one slot from the delegate after it was changed outside this adapter.
+     */
+    public void invalidate(int slot) {
+        if (indexed) {
+            unindex(slot);
+            index(slot, delegate.get(slot));
+        }
+    }
+
+    /**
+     * Drops the whole index; it is rebuilt from the delegate on the next query.
+     */
+    public void invalidateAll() {
+        totals.clear();
+        slotsByKey.clear();
+        keyBySlot.clear();
+        amountBySlot.clear();
+        partialSlotsByKey.clear();
+        emptySlots.clear();
+        indexed = false;
+    }
+
+    /**
+     * Sums the amounts of indexed slots similar to {@code item}, stopping once {@code atLeast}
+     * is reached.
+     */
+    @Override
+    public int countSimilar(A item, int atLeast) {
+        ensureIndexed();
+        BitSet slots = slotsByKey.get(itemOps.getKeyFrom(item));
+        if (slots == null) {
+            return 0;
+        }
+        int sum = 0;
+        for (int slot = slots.nextSetBit(0); slot >= 0 && sum < atLeast; slot = slots.nextSetBit(slot + 1)) {
+            A theItem = delegate.get(slot);
+            if (itemOps.isSimilar(theItem, item)) {
+                sum += itemOps.getAmount(theItem);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Distributes up to {@code amount} items over partial stacks of {@code key} accepted by
+     * {@code predicate} and empty slots, in ascending slot order, touching only those slots.
+     *
+     * @return slot {@literal ->} allocatable amount
+     */
+    @Override
+    public Map<Integer, Integer> findSpaces(int amount, int maxStack, Supplier<ItemKey> key, Predicate<A> predicate) {
+        ensureIndexed();
+        Map<Integer, Integer> spaces = new LinkedHashMap<>();
+        if (amount <= 0 || maxStack <= 0) {
+            return spaces;
+        }
+        BitSet partials = partialSlotsByKey.getOrDefault(key.get(), EMPTY_SLOTS);
+        int partial = partials.nextSetBit(0);
+        int empty = emptySlots.nextSetBit(0);
+        while (amount > 0 && (partial >= 0 || empty >= 0)) {
+            if (partial >= 0 && (empty < 0 || partial < empty)) {
+                A item = delegate.get(partial);
+                if (predicate.test(item)) {
+                    int spaceAmount = Math.min(maxStack - itemOps.getAmount(item), amount);
+                    if (spaceAmount >= 1) {
+                        spaces.put(partial, spaceAmount);
+                        amount -= spaceAmount;
+                    }
+                }
+                partial = partials.nextSetBit(partial + 1);
+            } else {
+                int spaceAmount = Math.min(maxStack, amount);
+                spaces.put(empty, spaceAmount);
+                amount -= spaceAmount;
+                empty = emptySlots.nextSetBit(empty + 1);
+            }
+        }
+        return spaces;
+    }
+
+    /**
+     * @return the slots holding a non-empty item
+     */
+    @Override
+    public BitSet nonEmptySlots() {
+        ensureIndexed();
+        BitSet slots = new BitSet();
+        for (BitSet keySlots : slotsByKey.values()) {
+            slots.or(keySlots);
+        }
+        return slots;
+    }
+
+    private void ensureIndexed() {
+        if (indexed) {
+            return;
+        }
+        delegate.forEachSlot((slot, item) -> {
+            index(slot, item);
+            return true;
+        });
+        indexed = true;
+    }
+
+    private void index(int slot, A item) {
+        if (itemOps.isEmpty(item)) {
+            emptySlots.set(slot);
+            return;
+        }
+        ItemKey key = itemOps.getKeyFrom(item);
+        int amount = itemOps.getAmount(item);
+        keyBySlot.put(slot, key);
+        amountBySlot.put(slot, amount);
+        totals.merge(key, amount, Integer::sum);
+        slotsByKey.computeIfAbsent(key, k -> new BitSet()).set(slot);
+        if (amount < itemOps.getMaxStackSize(item)) {
+            partialSlotsByKey.computeIfAbsent(key, k -> new BitSet()).set(slot);
+        }
+    }
+
+    private void unindex(int slot) {
+        emptySlots.clear(slot);
+        ItemKey key = keyBySlot.remove(slot);
+        if (key == null) {
+            return;
+        }
+        int amount = amountBySlot.remove(slot);
+        int total = totals.get(key) - amount;
+        if (total == 0) {
+            totals.remove(key);
+        } else {
+            totals.put(key, total);
+        }
+        BitSet slots = slotsByKey.get(key);
+        slots.clear(slot);
+        if (slots.isEmpty()) {
+            slotsByKey.remove(key);
+        }
+        BitSet partials = partialSlotsByKey.get(key);
+        if (partials != null) {
+            partials.clear(slot);
+            if (partials.isEmpty()) {
+                partialSlotsByKey.remove(key);
+            }
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package io.typst.inventory;
 
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
 import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * Minimal abstraction over an indexed inventory-like structure.
@@ -11,9 +16,161 @@ import java.util.Map;
  *
  * <p>{@link InventorySnapshotView} and related utilities will treat this as a
  * read-only source and never call {@link #set(int, Object)} directly.</p>
+ *
+ * <p>Adapters that can answer some queries without visiting every slot, such as
+ * {@link IndexedInventoryAdapter} and {@link MappedInventoryAdapter}, override the optional
+ * lookups {@link #count(ItemKey)}, {@link #countSimilar(Object, int)},
+ * {@link #findSpaces(int, int, Supplier, Predicate)}, {@link #findSlots(ItemKey, int)},
+ * {@link #nonEmptySlots()} and {@link #updated(Map)}. By default they report no answer and
+ * {@link InventorySnapshotView} scans instead.</p>
  */
 public interface InventoryAdapter<A> extends Iterable<Map.Entry<Integer, A>> {
     A get(int slot);
 
     void set(int slot, A item);
+
+    /**
+     * Writes several slots at once, e.g. the {@link InventoryPatch#getModifiedItems()} of a patch.
+     *
+     * <p>The default calls {@link #set(int, Object)} per entry. Adapters whose per-slot writes
+     * are expensive (such as live game inventories that notify viewers on every write)
+     * should override this to apply the batch in one operation.</p>
+     *
+     * @param items items by slot
+     */
+    default void setItems(Map<Integer, A> items) {
+        items.forEach(this::set);
+    }
+
+    /**
+     * Returns a stamp of the current contents, checked by {@link #isUnchangedSince(long)}
+     * before {@link InventoryMutator#commitIfUnchanged(InventoryPatch, long)} writes.
+     *
+     * <p>The default hashes every slot index with its item's {@link Object#hashCode()}, so it
+     * also observes changes made behind the adapter's back, but two different contents may
+     * share a stamp. Adapters that own their storage return a counter of their writes
+     * instead, and adapters over storage changed elsewhere override
+     * {@link #isUnchangedSince(long)} to compare the contents themselves.</p>
+     *
+     * @return the version stamp
+     */
+    default long getVersion() {
+        long[] version = {1L};
+        forEachSlot((slot, item) -> {
+            version[0] = version[0] * 31 + slot;
+            version[0] = version[0] * 0x9E3779B97F4A7C15L + (item != null ? item.hashCode() : 0);
+            return true;
+        });
+        return version[0];
+    }
+
+    /**
+     * Whether items returned by this adapter may change after they were read, like the
+     * mirrors of a server inventory. Patches planned against a live adapter copy the items
+     * they need while planning instead of when they are first read.
+     *
+     * @return {@code true} if read items follow later changes to their slots
+     */
+    default boolean isLive() {
+        return false;
+    }
+
+    /**
+     * @param version a stamp returned by {@link #getVersion()}
+     * @return {@code true} if the contents have not changed since {@code version} was taken
+     */
+    default boolean isUnchangedSince(long version) {
+        return getVersion() == version;
+    }
+
+    /**
+     * Visits every slot in iteration order with a primitive slot index, stopping as soon
+     * as the visitor returns {@code false}.
+     *
+     * <p>The default bridges to {@link #iterator()}. Adapters backed by indexed storage
+     * should override this to avoid allocating an entry and a boxed slot per visit.</p>
+     *
+     * @param visitor the visitor to call for each slot
+     * @return {@code true} if all slots were visited, {@code false} if the visitor stopped early
+     */
+    default boolean forEachSlot(SlotVisitor<A> visitor) {
+        for (Map.Entry<Integer, A> pair : this) {
+            if (!visitor.visit(pair.getKey(), pair.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Optional lookup of the total amount of items with {@code key}.
+     *
+     * @return the amount, or {@code -1} if this adapter cannot tell it without a scan
+     */
+    default int count(ItemKey key) {
+        return -1;
+    }
+
+    /**
+     * Optional lookup of the amount of items similar to {@code item}, which may stop summing
+     * once {@code atLeast} is reached.
+     *
+     * @return the amount, or {@code -1} if this adapter cannot tell it without a scan
+     */
+    default int countSimilar(A item, int atLeast) {
+        return -1;
+    }
+
+    /**
+     * Optional lookup distributing up to {@code amount} items over partial stacks with the key
+     * accepted by {@code predicate} and over empty slots, in ascending slot order.
+     *
+     * @param key supplies the key of the items, only called by adapters that can answer
+     * @return slot {@literal ->} allocatable amount, or {@code null} if this adapter cannot
+     * tell it without a scan
+     */
+    default @Nullable Map<Integer, Integer> findSpaces(int amount, int maxStack, Supplier<ItemKey> key, Predicate<A> predicate) {
+        return null;
+    }
+
+    /**
+     * Optional lookup of the slots contributing up to {@code amount} items with {@code key},
+     * in ascending slot order.
+     *
+     * @return slot {@literal ->} amount taken from that slot, or {@code null} if this adapter
+     * cannot tell it without a scan
+     */
+    default @Nullable Map<Integer, Integer> findSlots(ItemKey key, int amount) {
+        return null;
+    }
+
+    /**
+     * Optional lookup of the slots holding a non-empty item.
+     *
+     * @return a new set of the slots, or {@code null} if this adapter cannot tell them without a scan
+     */
+    default @Nullable BitSet nonEmptySlots() {
+        return null;
+    }
+
+    /**
+     * Optional immutable update: an immutable adapter with {@code items} written over the slots
+     * of this one, sharing the rest of its storage.
+     *
+     * @return the updated adapter, this adapter itself if {@code items} is empty, or
+     * {@code null} if this adapter is not immutable or cannot hold the slots
+     */
+    default @Nullable InventoryAdapter<A> updated(Map<Integer, A> items) {
+        return null;
+    }
+
+    @FunctionalInterface
+    interface SlotVisitor<A> {
+        /**
+         * @param slot the slot index
+         * @param item the item in the slot, as returned by iteration
+         * @return {@code true} to continue, {@code false} to stop visiting
+         */
+        boolean visit(int slot, A item);
+    }
 }
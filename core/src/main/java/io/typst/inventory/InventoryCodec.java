@@ -0,0 +1,264 @@
+package io.typst.inventory;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact binary encoding of {@link InventorySnapshotView} contents and {@link InventoryPatch}es,
+ * written to and read from a {@link ByteBuffer} directly.
+ *
+ * <p>Slots, amounts and lengths are unsigned varints. Each {@link ItemKey} is written in full
+ * the first time it occurs in a message and referenced by index afterwards, so a message is
+ * self-contained. Anything beyond the key and amount is an opaque, length-prefixed payload
+ * produced by {@link ItemStackOps#writePayload(Object, ByteBuffer)}. Encoding into a buffer
+ * that is too small throws {@link BufferOverflowException}; retry with a larger buffer.</p>
+ *
+ * <pre>
+ * snapshot := 0x01 count:int32 (slot item)*
+ * patch    := 0x02 count (slot item)*  count (slot item)*  count item*  count item*
+ *             modified items            diff                take remaining  give leftovers
+ * item     := 0 (empty) | 1 id name amount payload (new key) | 2+index amount payload
+ * </pre>
+ */
+public class InventoryCodec<A> {
+    private static final byte SNAPSHOT = 1;
+    private static final byte PATCH = 2;
+    private static final int EMPTY_TAG = 0;
+    private static final int NEW_KEY_TAG = 1;
+    private static final int KEY_REF_BASE = 2;
+    private static final ByteBuffer NO_PAYLOAD = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private final ItemStackOps<A> itemOps;
+    private final ItemKey emptyItemKey;
+
+    public InventoryCodec(ItemStackOps<A> itemOps, ItemKey emptyItemKey) {
+        this.itemOps = itemOps;
+        this.emptyItemKey = emptyItemKey;
+    }
+
+    public void encode(InventorySnapshotView<A> snapshot, ByteBuffer out) {
+        Map<ItemKey, Integer> keys = new HashMap<>();
+        out.put(SNAPSHOT);
+        int countPosition = out.position();
+        out.putInt(0);
+        int[] count = {0};
+        snapshot.getInventory().forEachSlot((slot, item) -> {
+            writeVarint(out, slot);
+            writeItem(out, item, keys);
+            count[0]++;
+            return true;
+        });
+        out.putInt(countPosition, count[0]);
+    }
+
+    public void encode(InventoryPatch<A> patch, ByteBuffer out) {
+        Map<ItemKey, Integer> keys = new HashMap<>();
+        out.put(PATCH);
+        writeVarint(out, patch.getModifiedItems().size());
+        for (Map.Entry<Integer, A> pair : patch.getModifiedItems().entrySet()) {
+            writeVarint(out, pair.getKey());
+            writeItem(out, pair.getValue(), keys);
+        }
+        writeVarint(out, patch.getDiff().size());
+        for (Map.Entry<Integer, A> pair : patch.getDiff()) {
+            writeVarint(out, pair.getKey());
+            writeItem(out, pair.getValue(), keys);
+        }
+        writeItems(out, patch.getFailure().getTakeRemainingItems(), keys);
+        writeItems(out, patch.getFailure().getGiveLeftoverItems(), keys);
+    }
+
+    /**
+     * Decodes a snapshot into an immutable view, backed by a read-only
+     * {@link ArrayInventoryAdapter} when the encoded slots are dense.
+     */
+    public InventorySnapshotView<A> decodeSnapshot(ByteBuffer in) {
+        expectTag(in, SNAPSHOT);
+        List<ItemKey> keys = new ArrayList<>();
+        int count = in.getInt();
+        // every encoded slot takes at least one byte, so a larger count cannot be genuine
+        if (count < 0 || count > in.remaining()) {
+            throw new IllegalArgumentException("Invalid slot count " + count + " for " + in.remaining() + " remaining bytes");
+        }
+        Object[] dense = new Object[count];
+        Map<Integer, A> sparse = null;
+        for (int i = 0; i < count; i++) {
+            int slot = readVarint(in);
+            A item = readItem(in, keys);
+            if (sparse == null && slot == i) {
+                dense[i] = item;
+                continue;
+            }
+            if (sparse == null) {
+                sparse = new LinkedHashMap<>();
+                for (int j = 0; j < i; j++) {
+                    sparse.put(j, itemAt(dense, j));
+                }
+            }
+            sparse.put(slot, item);
+        }
+        InventoryAdapter<A> inventory = sparse == null
+                ? new ArrayInventoryAdapter<>(dense, itemOps.empty(), true)
+                : new MapInventoryAdapter<>(Collections.unmodifiableMap(sparse), itemOps.empty());
+        return new InventorySnapshotView<>(inventory, itemOps, emptyItemKey);
+    }
+
+    public InventoryPatch<A> decodePatch(ByteBuffer in) {
+        expectTag(in, PATCH);
+        List<ItemKey> keys = new ArrayList<>();
+        InventoryPatch.Builder<A> builder = InventoryPatch.builder();
+        for (int i = readVarint(in); i > 0; i--) {
+            int slot = readVarint(in);
+            builder.modify(slot, readItem(in, keys));
+        }
+        for (int i = readVarint(in); i > 0; i--) {
+            int slot = readVarint(in);
+            builder.diff(slot, readItem(in, keys));
+        }
+        for (int i = readVarint(in); i > 0; i--) {
+            builder.takeRemaining(readItem(in, keys));
+        }
+        for (int i = readVarint(in); i > 0; i--) {
+            builder.giveLeftover(readItem(in, keys));
+        }
+        return builder.build();
+    }
+
+    private void writeItems(ByteBuffer out, List<A> items, Map<ItemKey, Integer> keys) {
+        writeVarint(out, items.size());
+        for (A item : items) {
+            writeItem(out, item, keys);
+        }
+    }
+
+    private void writeItem(ByteBuffer out, A item, Map<ItemKey, Integer> keys) {
+        if (itemOps.isEmpty(item)) {
+            writeVarint(out, EMPTY_TAG);
+            return;
+        }
+        ItemKey key = itemOps.getKeyFrom(item);
+        Integer index = keys.get(key);
+        if (index != null) {
+            writeVarint(out, KEY_REF_BASE + index);
+        } else {
+            keys.put(key, keys.size());
+            writeVarint(out, NEW_KEY_TAG);
+            writeString(out, key.getId());
+            writeString(out, key.getName());
+        }
+        writeVarint(out, itemOps.getAmount(item));
+        writePayload(out, item);
+    }
+
+    /**
+     * Writes the payload behind a one-byte length prefix and widens the prefix afterwards
+     * if the payload turns out to be 128 bytes or longer.
+     */
+    private void writePayload(ByteBuffer out, A item) {
+        int prefixPosition = out.position();
+        out.put((byte) 0);
+        int payloadPosition = out.position();
+        itemOps.writePayload(item, out);
+        int length = out.position() - payloadPosition;
+        int extra = varintSize(length) - 1;
+        if (extra > 0) {
+            if (out.remaining() < extra) {
+                throw new BufferOverflowException();
+            }
+            for (int i = length - 1; i >= 0; i--) {
+                out.put(payloadPosition + extra + i, out.get(payloadPosition + i));
+            }
+        }
+        out.position(prefixPosition);
+        writeVarint(out, length);
+        out.position(payloadPosition + extra + length);
+    }
+
+    private A readItem(ByteBuffer in, List<ItemKey> keys) {
+        int tag = readVarint(in);
+        if (tag == EMPTY_TAG) {
+            return itemOps.empty();
+        }
+        ItemKey key;
+        if (tag == NEW_KEY_TAG) {
+            key = new ItemKey(readString(in), readString(in));
+            keys.add(key);
+        } else {
+            int index = tag - KEY_REF_BASE;
+            if (index >= keys.size()) {
+                throw new IllegalArgumentException("Unknown item key reference: " + index);
+            }
+            key = keys.get(index);
+        }
+        int amount = readVarint(in);
+        int length = readVarint(in);
+        if (length == 0) {
+            return itemOps.readPayload(key, amount, NO_PAYLOAD);
+        }
+        ByteBuffer payload = in.slice();
+        payload.limit(length);
+        in.position(in.position() + length);
+        return itemOps.readPayload(key, amount, payload);
+    }
+
+    @SuppressWarnings("unchecked")
+    private A itemAt(Object[] items, int index) {
+        return (A) items[index];
+    }
+
+    private static void expectTag(ByteBuffer in, byte tag) {
+        byte actual = in.get();
+        if (actual != tag) {
+            throw new IllegalArgumentException("Expected message type " + tag + " but was " + actual);
+        }
+    }
+
+    private static void writeString(ByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.put(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarint(in);
+        if (!in.hasArray()) {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    static void writeVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,29 @@
+package io.typst.inventory;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for one {@link InventoryMutator} operation, from planning to commit.
+ */
+@Name("io.typst.inventory.Commit")
+@Label("Inventory Commit")
+@Category("Inventory")
+@Description("An inventory mutator operation, from planning to commit")
+final class InventoryCommitEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Success")
+    @Description("Whether the operation succeeded in full")
+    boolean success;
+
+    @Label("Slots Written")
+    int slots;
+
+    @Label("Dropped Items")
+    @Description("Leftover items handed to EntityOps.dropItem")
+    int drops;
+}
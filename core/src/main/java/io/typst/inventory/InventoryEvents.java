@@ -0,0 +1,80 @@
+package io.typst.inventory;
+
+/**
+ * Settings of the Java Flight Recorder events emitted by this library: {@code io.typst.inventory.Commit}
+ * for every {@link InventoryMutator} operation and {@code io.typst.inventory.Scan} for inventory scans of
+ * at least {@link #getScanSlotThreshold()} slots, both in the "Inventory" category.
+ *
+ * <p>While no recording has the events enabled, each operation only pays for an
+ * {@code isEnabled()} check. The scan threshold defaults to the
+ * {@code io.typst.inventory.scanSlotThreshold} system property, or 1000.</p>
+ */
+public final class InventoryEvents {
+    private static volatile int scanSlotThreshold = Integer.getInteger("io.typst.inventory.scanSlotThreshold", 1000);
+
+    private InventoryEvents() {
+    }
+
+    public static int getScanSlotThreshold() {
+        return scanSlotThreshold;
+    }
+
+    /**
+     * @param threshold the minimum number of slots a scan visits to be recorded
+     */
+    public static void setScanSlotThreshold(int threshold) {
+        scanSlotThreshold = threshold;
+    }
+
+    /**
+     * {@link InventoryAdapter#forEachSlot(InventoryAdapter.SlotVisitor)} that records an
+     * {@link InventoryScanEvent} named {@code scan} when enabled and over the threshold, and
+     * counts the visited slots as {@link InventoryMetrics} scanned slots when {@code itemOps}
+     * is metered.
+     */
+    static <A> boolean forEachSlot(String scan, InventoryAdapter<A> inventory, ItemStackOps<A> itemOps, InventoryAdapter.SlotVisitor<A> visitor) {
+        return forEachSlot(scan, inventory, itemOps instanceof MeteredItemStackOps ? (MeteredItemStackOps<A>) itemOps : null, visitor);
+    }
+
+    /**
+     * Same as {@link #forEachSlot(String, InventoryAdapter, ItemStackOps, InventoryAdapter.SlotVisitor)}
+     * without counting the visited slots, for callers that count them with {@link #countSlots}.
+     */
+    static <A> boolean forEachSlot(String scan, InventoryAdapter<A> inventory, InventoryAdapter.SlotVisitor<A> visitor) {
+        return forEachSlot(scan, inventory, (MeteredItemStackOps<A>) null, visitor);
+    }
+
+    /**
+     * Counts {@code slots} visited by a scan that was not counted itself.
+     */
+    static void countSlots(ItemStackOps<?> itemOps, int slots) {
+        if (itemOps instanceof MeteredItemStackOps) {
+            ((MeteredItemStackOps<?>) itemOps).addSlotsScanned(slots);
+        }
+    }
+
+    private static <A> boolean forEachSlot(String scan, InventoryAdapter<A> inventory, MeteredItemStackOps<A> meter, InventoryAdapter.SlotVisitor<A> visitor) {
+        InventoryScanEvent event = new InventoryScanEvent();
+        boolean enabled = event.isEnabled();
+        if (!enabled && meter == null) {
+            return inventory.forEachSlot(visitor);
+        }
+        int[] slots = {0};
+        event.begin();
+        boolean completed = inventory.forEachSlot((slot, item) -> {
+            slots[0]++;
+            return visitor.visit(slot, item);
+        });
+        event.end();
+        if (meter != null) {
+            meter.addSlotsScanned(slots[0]);
+        }
+        if (enabled && slots[0] >= scanSlotThreshold && event.shouldCommit()) {
+            event.scan = scan;
+            event.adapter = inventory.getClass().getSimpleName();
+            event.slots = slots[0];
+            event.commit();
+        }
+        return completed;
+    }
+}
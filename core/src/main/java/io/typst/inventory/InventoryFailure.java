@@ -3,8 +3,8 @@ package io.typst.inventory;
 import lombok.Value;
 import lombok.With;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -16,7 +16,8 @@ import java.util.List;
  * </ul>
  *
  * <p>Instances are immutable and can be combined via {@link #plus(InventoryFailure)},
- * which concatenates both lists.</p>
+ * which concatenates both lists. Use {@link #builder()} to accumulate many failures
+ * without copying on every step.</p>
  */
 @Value
 @With
@@ -27,8 +28,8 @@ public class InventoryFailure<A> {
     private static final InventoryFailure EMPTY = new InventoryFailure<>(List.of(), List.of());
 
     public InventoryFailure(List<A> takeRemainingItems, List<A> giveLeftoverItems) {
-        this.takeRemainingItems = List.copyOf(new LinkedList<>(takeRemainingItems));
-        this.giveLeftoverItems = List.copyOf(new LinkedList<>(giveLeftoverItems));
+        this.takeRemainingItems = List.copyOf(takeRemainingItems);
+        this.giveLeftoverItems = List.copyOf(giveLeftoverItems);
     }
 
     @SuppressWarnings("unchecked")
@@ -40,15 +41,61 @@ public class InventoryFailure<A> {
         return InventoryFailure.<A>empty().withGiveLeftoverItems(Collections.singletonList(emptyItem));
     }
 
+    public static <A> Builder<A> builder() {
+        return new Builder<>();
+    }
+
     public InventoryFailure<A> plus(InventoryFailure<A> another) {
-        List<A> newTakeRemainingItems = new LinkedList<>(takeRemainingItems);
-        newTakeRemainingItems.addAll(another.getTakeRemainingItems());
-        List<A> newGiveLeftoverItems = new LinkedList<>(giveLeftoverItems);
-        newGiveLeftoverItems.addAll(another.getGiveLeftoverItems());
-        return new InventoryFailure<>(newTakeRemainingItems, newGiveLeftoverItems);
+        if (another.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return another;
+        }
+        return InventoryFailure.<A>builder()
+                .plus(this)
+                .plus(another)
+                .build();
     }
 
     public boolean isEmpty() {
         return getGiveLeftoverItems().isEmpty() && getTakeRemainingItems().isEmpty();
     }
+
+    /**
+     * Mutable accumulator for {@link InventoryFailure}. Not thread-safe.
+     */
+    public static final class Builder<A> {
+        private final List<A> takeRemainingItems = new ArrayList<>();
+        private final List<A> giveLeftoverItems = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        public Builder<A> takeRemaining(A item) {
+            takeRemainingItems.add(item);
+            return this;
+        }
+
+        public Builder<A> giveLeftover(A item) {
+            giveLeftoverItems.add(item);
+            return this;
+        }
+
+        public Builder<A> plus(InventoryFailure<A> failure) {
+            takeRemainingItems.addAll(failure.getTakeRemainingItems());
+            giveLeftoverItems.addAll(failure.getGiveLeftoverItems());
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return takeRemainingItems.isEmpty() && giveLeftoverItems.isEmpty();
+        }
+
+        public InventoryFailure<A> build() {
+            return isEmpty()
+                    ? InventoryFailure.empty()
+                    : new InventoryFailure<>(takeRemainingItems, giveLeftoverItems);
+        }
+    }
 }
@@ -0,0 +1,30 @@
+package io.typst.inventory;
+
+import java.util.function.Function;
+
+/**
+ * Receives one sample per measured inventory operation, see
+ * {@link InventoryMutator#withMetrics(InventoryMetrics)} and
+ * {@link InventorySnapshotView#measure(InventoryMetrics, String, Function)}.
+ *
+ * <p>With {@link #NOOP}, the default, nothing is measured and operations run exactly as
+ * without metrics. Samples are reported on the thread that ran the operation, so an
+ * implementation shared by several threads must be thread-safe, like
+ * {@link HistogramInventoryMetrics}.</p>
+ */
+@FunctionalInterface
+public interface InventoryMetrics {
+    InventoryMetrics NOOP = (operation, nanos, slotsScanned, copies, patchSize) -> {
+    };
+
+    /**
+     * @param operation    the operation name, e.g. {@code "giveItem"}
+     * @param nanos        the time spent planning and committing
+     * @param slotsScanned the inventory slots visited by scans, each compared slot once for a
+     *                     diff; slots read through an index or {@link InventoryAdapter#get(int)}
+     *                     are not counted
+     * @param copies       the {@link ItemStackOps#copy(Object)} calls
+     * @param patchSize    the slots written, {@code 0} if nothing was committed
+     */
+    void record(String operation, long nanos, long slotsScanned, long copies, int patchSize);
+}
@@ -3,10 +3,12 @@ package io.typst.inventory;
 import lombok.Value;
 import lombok.With;
 
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Applies {@link InventoryPatch}es and high-level operations to a mutable
@@ -27,42 +29,84 @@ public class InventoryMutator<I, E> {
     ItemStackOps<I> itemOps;
     EntityOps<E, I> entityOps;
     ItemKey emptyItemKey;
+    /**
+     * Receives a sample per operation; see {@link #withMetrics(InventoryMetrics)}.
+     */
+    InventoryMetrics metrics;
 
     public InventoryMutator(InventoryAdapter<I> inventory, ItemStackOps<I> itemOps, EntityOps<E, I> entityOps, ItemKey emptyItemKey) {
+        this(inventory, itemOps, entityOps, emptyItemKey, InventoryMetrics.NOOP);
+    }
+
+    public InventoryMutator(InventoryAdapter<I> inventory, ItemStackOps<I> itemOps, EntityOps<E, I> entityOps, ItemKey emptyItemKey, InventoryMetrics metrics) {
         this.inventory = inventory;
         this.itemOps = itemOps;
         this.entityOps = entityOps;
         this.emptyItemKey = emptyItemKey;
+        this.metrics = metrics;
     }
 
     public InventorySnapshotView<I> toSnapshotView() {
         return new InventorySnapshotView<>(inventory, itemOps, emptyItemKey);
     }
 
+    /**
+     * Copies the slots into a mutable inventory detached from this one, backed by an
+     * {@link ArrayInventoryAdapter} when the slots are dense.
+     *
+     * <p>The copy has the same slots as this inventory. A dense copy is fixed-size, so
+     * {@link InventoryAdapter#set(int, Object)} outside {@code [0, size)} throws
+     * {@link IndexOutOfBoundsException}; a sparse copy is map-backed and accepts any slot.
+     * Operations planned on the copy only write its existing slots.</p>
+     */
     public InventoryMutator<I, E> copy() {
-        Map<Integer, I> map = new LinkedHashMap<>();
-        for (Map.Entry<Integer, I> pair : inventory) {
-            map.put(pair.getKey(), pair.getValue());
+        SlotBuffer<I> buffer = SlotBuffer.of(inventory);
+        InventoryAdapter<I> copied = buffer.isDense()
+                ? new ArrayInventoryAdapter<>(buffer.toArray(buffer.size(), itemOps, false), itemOps.empty(), false)
+                : new MapInventoryAdapter<>(buffer.toMap(itemOps, false), itemOps.empty());
+        return withInventory(copied);
+    }
+
+    /**
+     * Runs several operations as one unit against a copy-on-write overlay of this inventory.
+     *
+     * <p>The mutator passed to {@code operations} reads through to this inventory and records
+     * its writes in a small delta. If {@code operations} returns {@code true} the delta is
+     * written to this inventory once; otherwise it is discarded and this inventory is left
+     * untouched. Entity side effects such as drops are not deferred.</p>
+     *
+     * <p>On a {@link ConcurrentInventoryAdapter} the overlay reads from a snapshot and the delta
+     * is committed only if none of its slots was replaced since; otherwise {@code operations}
+     * runs again on a fresh snapshot, so it should have no side effects of its own.</p>
+     *
+     * <pre>{@code
+     * mutator.transaction(tx -> tx.takeItems(input) && tx.giveItem(output));
+     * }</pre>
+     *
+     * @param operations the operations to run, returning whether to commit
+     * @return {@code true} if the changes were committed
+     */
+    public boolean transaction(Predicate<InventoryMutator<I, E>> operations) {
+        while (true) {
+            InventoryAdapter<I> planned = planningSource();
+            OverlayInventoryAdapter<I> overlay = new OverlayInventoryAdapter<>(planned);
+            if (!operations.test(withInventory(overlay))) {
+                overlay.discard();
+                return false;
+            }
+            if (commit(overlay.getDelta(), planned)) {
+                return true;
+            }
         }
-        return withInventory(new MapInventoryAdapter<>(map, itemOps.empty()));
     }
 
     public void giveItemOrDrop(E entity, I item) {
-        InventorySnapshotView<I> inv = toSnapshotView();
-        InventoryPatch<I> patch = inv.giveItems(item);
-        patch.getModifiedItems().forEach(inventory::set);
+        InventoryPatch<I> patch = apply("giveItemOrDrop", inv -> inv.giveItems(item), true);
         patch.getFailure().getGiveLeftoverItems().forEach(a -> entityOps.dropItem(entity, a));
     }
 
     public boolean giveItem(Iterable<I> items) {
-        InventorySnapshotView<I> inv = toSnapshotView();
-        InventoryPatch<I> patch = inv.giveItems(items);
-        if (patch.isSuccess()) {
-            patch.getModifiedItems().forEach(inventory::set);
-            return true;
-        } else {
-            return false;
-        }
+        return apply("giveItem", inv -> inv.giveItems(items), false).isSuccess();
     }
 
     @SafeVarargs
@@ -71,12 +115,7 @@ public class InventoryMutator<I, E> {
     }
 
     public boolean takeItems(Iterable<I> items) {
-        InventoryPatch<I> patch = toSnapshotView().takeItems(items);
-        if (patch.isSuccess()) {
-            patch.getModifiedItems().forEach(inventory::set);
-            return true;
-        }
-        return false;
+        return apply("takeItems", inv -> inv.takeItems(items), false).isSuccess();
     }
 
     @SafeVarargs
@@ -84,13 +123,166 @@ public class InventoryMutator<I, E> {
         return takeItems(List.of(items));
     }
 
+    public boolean takeItems(ItemRequirements<I> requirements) {
+        return apply("takeItems", inv -> inv.takeItems(requirements), false).isSuccess();
+    }
+
     public boolean takeItem(int count, ItemKey key) {
-        InventoryPatch<I> patch = toSnapshotView().takeItem(count, key);
-        if (patch.isSuccess()) {
-            patch.getModifiedItems().forEach(inventory::set);
-            return true;
+        return apply("takeItem", inv -> inv.takeItem(count, key), false).isSuccess();
+    }
+
+    /**
+     * Takes {@code inputs} and gives {@code outputs} as one plan and one write, or does
+     * nothing if any input is missing or any output does not fit.
+     *
+     * @see InventorySnapshotView#exchange(Iterable, Iterable)
+     */
+    public boolean exchange(Iterable<I> inputs, Iterable<I> outputs) {
+        return apply("exchange", inv -> inv.exchange(inputs, outputs), false).isSuccess();
+    }
+
+    /**
+     * @see InventorySnapshotView#maxExchangeCount(Iterable, Iterable)
+     */
+    public int maxExchangeCount(Iterable<I> inputs, Iterable<I> outputs) {
+        return toSnapshotView().maxExchangeCount(inputs, outputs);
+    }
+
+    /**
+     * @return the current {@link InventoryAdapter#getVersion()} of this inventory
+     */
+    public long version() {
+        return inventory.getVersion();
+    }
+
+    /**
+     * Commits a patch planned elsewhere, typically off the main thread from
+     * {@link InventorySnapshotView#toImmutable()}, only if this inventory is still at the
+     * version the snapshot was taken at.
+     *
+     * <pre>{@code
+     * long version = mutator.version();
+     * InventorySnapshotView<I> snapshot = mutator.toSnapshotView().toImmutable();
+     * // later, on another thread
+     * InventoryPatch<I> patch = snapshot.takeItems(price);
+     * // back on the main thread
+     * if (!mutator.commitIfUnchanged(patch, version)) { ... replan ... }
+     * }</pre>
+     *
+     * <p>On a {@link ConcurrentInventoryAdapter} the version check and the write happen
+     * atomically, see {@link ConcurrentInventoryAdapter#compareAndSetItems(long, Map)}.</p>
+     *
+     * @param patch   the patch to apply
+     * @param version the version read when the snapshot was taken
+     * @return {@code true} if the patch was successful and has been applied
+     */
+    public boolean commitIfUnchanged(InventoryPatch<I> patch, long version) {
+        InventoryCommitEvent event = new InventoryCommitEvent();
+        event.begin();
+        long start = metrics != InventoryMetrics.NOOP ? System.nanoTime() : 0;
+        boolean committed = patch.isSuccess() && commitAt(patch.getModifiedItems(), version);
+        if (metrics != InventoryMetrics.NOOP) {
+            metrics.record("commitIfUnchanged", System.nanoTime() - start, 0, 0, committed ? patch.getModifiedItems().size() : 0);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            commitEvent(event, "commitIfUnchanged", committed, committed ? patch.getModifiedItems().size() : 0, 0);
+        }
+        return committed;
+    }
+
+    /**
+     * Moves items from {@code source} to {@code target}, scanning each inventory once.
+     *
+     * <p>Each requested item is capped to the similar amount available in the source and to
+     * the room left in the target, taking the previous items of the same call into account.
+     * Both inventories are then written together, or not at all if nothing can be moved.
+     * {@code source} and {@code target} must not share slots. If one of them is a
+     * {@link ConcurrentInventoryAdapter}, both are planned again whenever its slots were
+     * replaced before the commit; two concurrent adapters are not supported.</p>
+     *
+     * @param source the inventory to take from
+     * @param target the inventory to give to
+     * @param items  the items to move, with the requested amounts
+     * @return the items actually moved, with the moved amounts
+     * @throws UnsupportedOperationException if both inventories are {@link ConcurrentInventoryAdapter}s
+     */
+    public static <I> List<I> transfer(InventoryMutator<I, ?> source, InventoryMutator<I, ?> target, Iterable<I> items) {
+        if (source.getInventory() instanceof ConcurrentInventoryAdapter && target.getInventory() instanceof ConcurrentInventoryAdapter) {
+            throw new UnsupportedOperationException("Cannot transfer between two concurrent inventories atomically");
+        }
+        InventoryMetrics metrics = source.getMetrics();
+        MeteredItemStackOps<I> meteredOps = metrics != InventoryMetrics.NOOP ? new MeteredItemStackOps<>(source.getItemOps()) : null;
+        ItemStackOps<I> itemOps = meteredOps != null ? meteredOps : source.getItemOps();
+        long start = meteredOps != null ? System.nanoTime() : 0;
+        InventoryCommitEvent event = new InventoryCommitEvent();
+        event.begin();
+        List<I> moved = new ArrayList<>();
+        int written = transfer(source, target, items, itemOps, moved);
+        if (meteredOps != null) {
+            metrics.record("transfer", System.nanoTime() - start, meteredOps.getSlotsScanned(), meteredOps.getCopies(), written);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            commitEvent(event, "transfer", !moved.isEmpty(), written, 0);
+        }
+        return moved;
+    }
+
+    /**
+     * Plans and commits a {@link #transfer(InventoryMutator, InventoryMutator, Iterable)},
+     * adding the moved items to {@code moved}.
+     *
+     * @return the slots written to both inventories
+     */
+    private static <I> int transfer(InventoryMutator<I, ?> source, InventoryMutator<I, ?> target, Iterable<I> items, ItemStackOps<I> itemOps, List<I> moved) {
+        while (true) {
+            InventoryAdapter<I> sourceItems = source.planningSource();
+            InventoryAdapter<I> targetItems = target.planningSource();
+            InventoryPlanner<I> from = InventoryPlanner.of(sourceItems, itemOps);
+            InventoryPlanner<I> to = InventoryPlanner.of(targetItems, itemOps);
+            for (I item : items) {
+                if (itemOps.isEmpty(item)) {
+                    continue;
+                }
+                int amount = Math.min(itemOps.getAmount(item), Math.min(from.count(item), to.room(item)));
+                if (amount < 1) {
+                    continue;
+                }
+                I movedItem = itemOps.copy(item);
+                itemOps.setAmount(movedItem, amount);
+                from.take(movedItem);
+                to.give(movedItem);
+                moved.add(movedItem);
+            }
+            if (moved.isEmpty()) {
+                return 0;
+            }
+            Map<Integer, I> taken = from.toPatch().getModifiedItems();
+            Map<Integer, I> given = to.toPatch().getModifiedItems();
+            // the concurrent side, if any, goes first: the other side always commits
+            boolean committed = target.getInventory() instanceof ConcurrentInventoryAdapter
+                    ? target.commit(given, targetItems) && source.commit(taken, sourceItems)
+                    : source.commit(taken, sourceItems) && target.commit(given, targetItems);
+            if (committed) {
+                return taken.size() + given.size();
+            }
+            moved.clear();
         }
-        return false;
+    }
+
+    /**
+     * Wraps this inventory in an {@link IndexedInventoryAdapter}, so that counting and
+     * presence checks are answered from an item key index maintained on every write.
+     *
+     * @throws UnsupportedOperationException on a {@link ConcurrentInventoryAdapter}, whose
+     *                                       writes from other threads would bypass the index
+     */
+    public InventoryMutator<I, E> indexed() {
+        if (inventory instanceof ConcurrentInventoryAdapter) {
+            throw new UnsupportedOperationException("Cannot index a concurrent inventory");
+        }
+        return withInventory(new IndexedInventoryAdapter<>(inventory, itemOps));
     }
 
     public InventoryMutator<I, E> subInventory(Iterable<Integer> slots) {
@@ -101,9 +293,98 @@ public class InventoryMutator<I, E> {
         return withInventory(new SubInventoryAdapter<>(inventory, itemOps.empty(), List.of(slots)));
     }
 
-    public void forEach(BiConsumer<Integer, I> f) {
-        for (Map.Entry<Integer, I> pair : inventory) {
-            f.accept(pair.getKey(), pair.getValue());
+    /**
+     * Plans {@code operation} and commits the patch if it succeeded, or regardless when
+     * {@code partial}. On a {@link ConcurrentInventoryAdapter} the plan runs against a
+     * snapshot and is re-planned until it commits without a concurrent write to its slots.
+     * Unless {@link #metrics} is {@link InventoryMetrics#NOOP}, the whole call is reported
+     * under {@code name}.
+     */
+    private InventoryPatch<I> apply(String name, Function<InventorySnapshotView<I>, InventoryPatch<I>> operation, boolean partial) {
+        InventoryCommitEvent event = new InventoryCommitEvent();
+        event.begin();
+        InventoryPatch<I> patch = metrics == InventoryMetrics.NOOP
+                ? apply(itemOps, operation, partial)
+                : applyMetered(name, operation, partial);
+        event.end();
+        if (event.shouldCommit()) {
+            // partial operations hand their leftovers to EntityOps.dropItem, see giveItemOrDrop
+            int drops = partial ? patch.getFailure().getGiveLeftoverItems().size() : 0;
+            commitEvent(event, name, patch.isSuccess(), patch.isSuccess() || partial ? patch.getModifiedItems().size() : 0, drops);
+        }
+        return patch;
+    }
+
+    private InventoryPatch<I> applyMetered(String name, Function<InventorySnapshotView<I>, InventoryPatch<I>> operation, boolean partial) {
+        MeteredItemStackOps<I> meteredOps = new MeteredItemStackOps<>(itemOps);
+        long start = System.nanoTime();
+        InventoryPatch<I> patch = apply(meteredOps, operation, partial);
+        int written = patch.isSuccess() || partial ? patch.getModifiedItems().size() : 0;
+        metrics.record(name, System.nanoTime() - start, meteredOps.getSlotsScanned(), meteredOps.getCopies(), written);
+        return patch;
+    }
+
+    private InventoryPatch<I> apply(ItemStackOps<I> ops, Function<InventorySnapshotView<I>, InventoryPatch<I>> operation, boolean partial) {
+        while (true) {
+            InventoryAdapter<I> planned = planningSource();
+            InventoryPatch<I> patch = operation.apply(new InventorySnapshotView<>(planned, ops, emptyItemKey));
+            if (!patch.isSuccess() && !partial) {
+                return patch;
+            }
+            if (commit(patch.getModifiedItems(), planned)) {
+                return patch;
+            }
         }
     }
+
+    /**
+     * @return a {@link ConcurrentInventoryAdapter#snapshot()} of this inventory if it is
+     * concurrent, otherwise the inventory itself
+     */
+    private InventoryAdapter<I> planningSource() {
+        return inventory instanceof ConcurrentInventoryAdapter
+                ? ((ConcurrentInventoryAdapter<I>) inventory).snapshot()
+                : inventory;
+    }
+
+    /**
+     * Writes {@code items} planned against {@code planned}, which on a
+     * {@link ConcurrentInventoryAdapter} fails if any of their slots was replaced since.
+     */
+    private boolean commit(Map<Integer, I> items, InventoryAdapter<I> planned) {
+        if (inventory instanceof ConcurrentInventoryAdapter) {
+            return ((ConcurrentInventoryAdapter<I>) inventory).compareAndSetItems(planned, items);
+        }
+        inventory.setItems(items);
+        return true;
+    }
+
+    /**
+     * Writes {@code items} if this inventory is still at {@code version}.
+     */
+    private boolean commitAt(Map<Integer, I> items, long version) {
+        if (inventory instanceof ConcurrentInventoryAdapter) {
+            return ((ConcurrentInventoryAdapter<I>) inventory).compareAndSetItems(version, items);
+        }
+        if (!inventory.isUnchangedSince(version)) {
+            return false;
+        }
+        inventory.setItems(items);
+        return true;
+    }
+
+    private static void commitEvent(InventoryCommitEvent event, String operation, boolean success, int slots, int drops) {
+        event.operation = operation;
+        event.success = success;
+        event.slots = slots;
+        event.drops = drops;
+        event.commit();
+    }
+
+    public void forEach(BiConsumer<Integer, I> f) {
+        inventory.forEachSlot((slot, item) -> {
+            f.accept(slot, item);
+            return true;
+        });
+    }
 }
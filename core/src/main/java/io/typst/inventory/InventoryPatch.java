@@ -2,6 +2,7 @@ package io.typst.inventory;
 
 import lombok.Value;
 import lombok.With;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
@@ -17,7 +18,16 @@ import java.util.*;
  *
  * <p>Patches are immutable and can be combined via {@link #plus(InventoryPatch)}.
  * The combined patch behaves as if all original operations were applied in order:
- * later patches override earlier slot changes, and failures are accumulated.</p>
+ * later patches override earlier slot changes, and failures are accumulated.
+ * To combine many patches, accumulate them in a {@link Builder} instead, which
+ * copies once on {@link Builder#build()} rather than on every step.</p>
+ *
+ * <p>Patches planned by {@link InventorySnapshotView} record each touched slot as a source
+ * item and an amount, and copy the items only when {@link #getModifiedItems()} or
+ * {@link #getDiff()} is first read, so a dry run that only checks {@link #isSuccess()}
+ * copies nothing. Until then they hold the items read from the planned inventory, so those
+ * must not change in between: a patch planned against a {@link InventoryAdapter#isLive() live}
+ * adapter copies its items while planning instead.</p>
  *
  * <p>Call {@link #isSuccess()} to check whether the patch represents a fully
  * successful operation (no remaining required items, no leftover outputs).
@@ -34,8 +44,14 @@ public class InventoryPatch<A> {
     private static final InventoryPatch EMPTY = new InventoryPatch<>(Map.of(), List.of(), InventoryFailure.empty());
 
     public InventoryPatch(Map<Integer, A> modifiedItems, List<Map.Entry<Integer, A>> diff, InventoryFailure<A> failure) {
-        this.modifiedItems = Map.copyOf(new LinkedHashMap<>(modifiedItems));
-        this.diff = List.copyOf(new ArrayList<>(diff));
+        this.modifiedItems = Map.copyOf(modifiedItems);
+        this.diff = List.copyOf(diff);
+        this.failure = failure;
+    }
+
+    private InventoryPatch(LazyItems<A> modifiedItems, LazyDiff<A> diff, InventoryFailure<A> failure) {
+        this.modifiedItems = modifiedItems;
+        this.diff = diff;
         this.failure = failure;
     }
 
@@ -48,17 +64,40 @@ public class InventoryPatch<A> {
         return InventoryPatch.<A>empty().withFailure(InventoryFailure.failure(emptyItem));
     }
 
+    /**
+     * Creates a builder that appends diff entries as-is, like {@link #plus(InventoryPatch)}.
+     */
+    public static <A> Builder<A> builder() {
+        return new Builder<>(null, true);
+    }
+
+    /**
+     * Creates a builder that coalesces diff entries of similar items on the same slot
+     * into one entry with the summed amount.
+     *
+     * @param itemOps the ops used to compare and copy diff items
+     */
+    public static <A> Builder<A> builder(ItemStackOps<A> itemOps) {
+        return new Builder<>(itemOps, true);
+    }
+
+    /**
+     * @param deferCopies {@code false} to copy source items as soon as they are recorded, for
+     *                    sources that may change before the patch is read
+     */
+    static <A> Builder<A> builder(ItemStackOps<A> itemOps, boolean deferCopies) {
+        return new Builder<>(itemOps, deferCopies);
+    }
+
     public boolean isSuccess() {
         return !modifiedItems.isEmpty() && failure.isEmpty();
     }
 
     public InventoryPatch<A> plus(InventoryPatch<A> another) {
-        Map<Integer, A> newItems = new LinkedHashMap<>(modifiedItems);
-        List<Map.Entry<Integer, A>> newDiff = new ArrayList<>(diff);
-        newItems.putAll(another.modifiedItems);
-        newDiff.addAll(another.diff);
-        InventoryFailure<A> newFailure = failure.plus(another.getFailure());
-        return new InventoryPatch<>(newItems, newDiff, newFailure);
+        return InventoryPatch.<A>builder()
+                .plus(this)
+                .plus(another)
+                .build();
     }
 
     public static <A> InventoryPatch<A> fromTakeResult(Map<Integer, A> modifiedItems, List<Map.Entry<Integer, A>> diff, @Nullable A remainingItem) {
@@ -74,4 +113,247 @@ public class InventoryPatch<A> {
                 : List.of();
         return new InventoryPatch<>(modifiedItems, diff, new InventoryFailure<>(List.of(), leftoverItems));
     }
+
+    /**
+     * Mutable accumulator for {@link InventoryPatch}. Later slot changes override earlier
+     * ones, as with {@link InventoryPatch#plus(InventoryPatch)}. Not thread-safe.
+     */
+    public static final class Builder<A> {
+        private final @Nullable ItemStackOps<A> itemOps;
+        private final Map<Integer, Pending<A>> modifiedItems = new LinkedHashMap<>();
+        private final List<Pending<A>> diff = new ArrayList<>();
+        private final Map<Integer, Integer> diffIndexBySlot = new HashMap<>();
+        private final InventoryFailure.Builder<A> failure = InventoryFailure.builder();
+        private final boolean deferCopies;
+        private boolean lazy = false;
+
+        private Builder(@Nullable ItemStackOps<A> itemOps, boolean deferCopies) {
+            this.itemOps = itemOps;
+            this.deferCopies = deferCopies;
+        }
+
+        public Builder<A> modify(int slot, A item) {
+            modifiedItems.put(slot, new Pending<>(slot, item, Pending.AS_IS));
+            return this;
+        }
+
+        /**
+         * Records that {@code slot} becomes a copy of {@code source} with {@code amount}, copied
+         * only when the built patch's items are read. Requires {@link #builder(ItemStackOps)}.
+         */
+        public Builder<A> modify(int slot, A source, int amount) {
+            modifiedItems.put(slot, lazy(slot, source, amount));
+            return this;
+        }
+
+        public Builder<A> diff(int slot, A item) {
+            return diff(new Pending<>(slot, item, Pending.AS_IS));
+        }
+
+        /**
+         * Records a diff entry of {@code amount} items like {@code source}, copied only when the
+         * built patch's diff is read. Requires {@link #builder(ItemStackOps)}.
+         */
+        public Builder<A> diff(int slot, A source, int amount) {
+            return diff(lazy(slot, source, amount));
+        }
+
+        private Builder<A> diff(Pending<A> entry) {
+            if (itemOps != null) {
+                Integer index = diffIndexBySlot.get(entry.slot);
+                Pending<A> existing = index != null ? diff.get(index) : null;
+                if (existing != null && itemOps.isSimilar(existing.source, entry.source)) {
+                    diff.set(index, lazy(entry.slot, existing.source, existing.amount(itemOps) + entry.amount(itemOps)));
+                    return this;
+                }
+                diffIndexBySlot.put(entry.slot, diff.size());
+            }
+            diff.add(entry);
+            return this;
+        }
+
+        /**
+         * Starts a new run of diff entries: entries recorded after this are not merged into
+         * earlier entries of the same slot, e.g. to keep the take and give of an exchange apart.
+         */
+        void separateDiff() {
+            diffIndexBySlot.clear();
+        }
+
+        /**
+         * Appends the diff entries of {@code other}, still uncopied, after a
+         * {@link #separateDiff()}; its modified items and failures are ignored.
+         */
+        void appendDiff(Builder<A> other) {
+            separateDiff();
+            for (Pending<A> entry : other.diff) {
+                diff(entry);
+            }
+            lazy |= other.lazy;
+        }
+
+        public Builder<A> takeRemaining(A item) {
+            failure.takeRemaining(item);
+            return this;
+        }
+
+        public Builder<A> giveLeftover(A item) {
+            failure.giveLeftover(item);
+            return this;
+        }
+
+        public Builder<A> plus(InventoryPatch<A> patch) {
+            patch.getModifiedItems().forEach(this::modify);
+            for (Map.Entry<Integer, A> pair : patch.getDiff()) {
+                diff(pair.getKey(), pair.getValue());
+            }
+            failure.plus(patch.getFailure());
+            return this;
+        }
+
+        public InventoryPatch<A> build() {
+            if (lazy) {
+                return new InventoryPatch<>(
+                        new LazyItems<>(List.copyOf(modifiedItems.values()), itemOps),
+                        new LazyDiff<>(List.copyOf(diff), itemOps),
+                        failure.build()
+                );
+            }
+            Map<Integer, A> items = new LinkedHashMap<>();
+            modifiedItems.forEach((slot, pending) -> items.put(slot, pending.source));
+            List<Map.Entry<Integer, A>> entries = new ArrayList<>(diff.size());
+            for (Pending<A> pending : diff) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(pending.slot, pending.source));
+            }
+            return new InventoryPatch<>(items, entries, failure.build());
+        }
+
+        private Pending<A> lazy(int slot, A source, int amount) {
+            if (itemOps == null) {
+                throw new IllegalStateException("Lazy entries require a builder with ItemStackOps");
+            }
+            Pending<A> pending = new Pending<>(slot, source, amount);
+            if (!deferCopies) {
+                return new Pending<>(slot, pending.materialize(itemOps), Pending.AS_IS);
+            }
+            lazy = true;
+            return pending;
+        }
+    }
+
+    /**
+     * A slot entry: either an item used as is, or a source item to copy with an amount.
+     */
+    private static final class Pending<A> {
+        private static final int AS_IS = -1;
+
+        private final int slot;
+        private final A source;
+        private final int amount;
+
+        private Pending(int slot, A source, int amount) {
+            this.slot = slot;
+            this.source = source;
+            this.amount = amount;
+        }
+
+        private int amount(ItemStackOps<A> itemOps) {
+            return amount == AS_IS ? itemOps.getAmount(source) : amount;
+        }
+
+        private A materialize(ItemStackOps<A> itemOps) {
+            if (amount == AS_IS) {
+                return source;
+            }
+            A item = itemOps.copy(source);
+            itemOps.setAmount(item, amount);
+            return item;
+        }
+    }
+
+    /**
+     * Modified items copied on first access. Concurrent first reads may both copy; either
+     * result is published whole through the volatile field.
+     */
+    private static final class LazyItems<A> extends AbstractMap<Integer, A> {
+        private final List<Pending<A>> entries;
+        private final ItemStackOps<A> itemOps;
+        private volatile Map<Integer, A> materialized;
+
+        private LazyItems(List<Pending<A>> entries, ItemStackOps<A> itemOps) {
+            this.entries = entries;
+            this.itemOps = itemOps;
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return entries.isEmpty();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return items().containsKey(key);
+        }
+
+        @Override
+        public A get(Object key) {
+            return items().get(key);
+        }
+
+        @Override
+        public @NotNull Set<Entry<Integer, A>> entrySet() {
+            return items().entrySet();
+        }
+
+        private Map<Integer, A> items() {
+            Map<Integer, A> items = materialized;
+            if (items == null) {
+                Map<Integer, A> copied = new LinkedHashMap<>();
+                for (Pending<A> pending : entries) {
+                    copied.put(pending.slot, pending.materialize(itemOps));
+                }
+                items = Collections.unmodifiableMap(copied);
+                materialized = items;
+            }
+            return items;
+        }
+    }
+
+    /**
+     * Diff entries copied on first access, see {@link LazyItems}.
+     */
+    private static final class LazyDiff<A> extends AbstractList<Map.Entry<Integer, A>> {
+        private final List<Pending<A>> entries;
+        private final ItemStackOps<A> itemOps;
+        private volatile List<Map.Entry<Integer, A>> materialized;
+
+        private LazyDiff(List<Pending<A>> entries, ItemStackOps<A> itemOps) {
+            this.entries = entries;
+            this.itemOps = itemOps;
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public Map.Entry<Integer, A> get(int index) {
+            List<Map.Entry<Integer, A>> items = materialized;
+            if (items == null) {
+                List<Map.Entry<Integer, A>> copied = new ArrayList<>(entries.size());
+                for (Pending<A> pending : entries) {
+                    copied.add(new AbstractMap.SimpleImmutableEntry<>(pending.slot, pending.materialize(itemOps)));
+                }
+                items = List.copyOf(copied);
+                materialized = items;
+            }
+            return items.get(index);
+        }
+    }
 }
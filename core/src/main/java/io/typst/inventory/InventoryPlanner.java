@@ -0,0 +1,391 @@
+package io.typst.inventory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Plans a sequence of take/give operations against a single scan of an inventory.
+ * The resulting patch copies items only when it is read, unless the inventory is
+ * {@link InventoryAdapter#isLive() live}.
+ *
+ * <p>Each slot is read once into a pending state of (item reference, amount), so later
+ * operations observe the effect of earlier ones without copying the snapshot or the
+ * items. Slots similar to a requested item are grouped lazily the first time that kind
+ * of item is requested, and groups are kept up to date as slots are emptied or filled.
+ * Groups are found by {@link ItemStackOps#similarityHash(Object)}, so requesting many kinds
+ * of items costs one hash per slot rather than one {@code isSimilar} per slot and kind.</p>
+ *
+ * <p>Slots are visited in the adapter's iteration order, so every operation produces
+ * the same result as its single-item counterpart on an inventory that already reflects
+ * the previous operations. Not thread-safe; one planner per plan.</p>
+ */
+final class InventoryPlanner<A> implements InventoryAdapter.SlotVisitor<A> {
+    private final ItemStackOps<A> itemOps;
+    private final InventoryPatch.Builder<A> builder;
+    private final List<Group<A>> groups = new ArrayList<>();
+    private final Map<Integer, Group<A>> groupsByHash = new HashMap<>();
+    private Map<Integer, BitSet> slotsByHash;
+    private final BitSet empties = new BitSet();
+    private final BitSet touched = new BitSet();
+    private int[] slots = new int[16];
+    private Object[] items = new Object[16];
+    private int[] amounts = new int[16];
+    private int size = 0;
+
+    private InventoryPlanner(ItemStackOps<A> itemOps, boolean deferCopies) {
+        this.itemOps = itemOps;
+        this.builder = InventoryPatch.builder(itemOps, deferCopies);
+    }
+
+    static <A> InventoryPlanner<A> of(InventoryAdapter<A> inventory, ItemStackOps<A> itemOps) {
+        InventoryPlanner<A> planner = new InventoryPlanner<>(itemOps, !inventory.isLive());
+        InventoryEvents.forEachSlot("plan", inventory, itemOps, planner);
+        return planner;
+    }
+
+    @Override
+    public boolean visit(int slot, A item) {
+        if (size == slots.length) {
+            int newLength = size * 2;
+            slots = Arrays.copyOf(slots, newLength);
+            items = Arrays.copyOf(items, newLength);
+            amounts = Arrays.copyOf(amounts, newLength);
+        }
+        slots[size] = slot;
+        if (itemOps.isEmpty(item)) {
+            empties.set(size);
+        } else {
+            items[size] = item;
+            amounts[size] = itemOps.getAmount(item);
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * @return the pending amount of items similar to {@code item}
+     */
+    int count(A item) {
+        long count = 0;
+        BitSet positions = groupOf(item).positions;
+        for (int pos = positions.nextSetBit(0); pos >= 0; pos = positions.nextSetBit(pos + 1)) {
+            count += amounts[pos];
+        }
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return how much of {@code item} could still be given, over partial stacks and empty slots
+     */
+    int room(A item) {
+        int maxStack = itemOps.getMaxStackSize(item);
+        if (maxStack <= 0) {
+            return 0;
+        }
+        long room = (long) empties.cardinality() * maxStack;
+        BitSet positions = groupOf(item).positions;
+        for (int pos = positions.nextSetBit(0); pos >= 0; pos = positions.nextSetBit(pos + 1)) {
+            room += Math.max(maxStack - amounts[pos], 0);
+        }
+        return (int) Math.min(room, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Takes up to the amount of {@code item} from slots holding similar items.
+     *
+     * @return the amount that could not be taken
+     */
+    int take(A item) {
+        int count = itemOps.getAmount(item);
+        BitSet positions = groupOf(item).positions;
+        for (int pos = positions.nextSetBit(0); pos >= 0 && count > 0; pos = positions.nextSetBit(pos + 1)) {
+            count -= takeAt(pos, count);
+        }
+        if (count >= 1) {
+            builder.takeRemaining(withAmount(item, count));
+        }
+        return count;
+    }
+
+    /**
+     * Gives {@code item} to empty slots and partial stacks of similar items, in slot order.
+     *
+     * @return the amount that could not be given
+     */
+    int give(A item) {
+        int count = itemOps.getAmount(item);
+        int maxStack = itemOps.getMaxStackSize(item);
+        if (maxStack <= 0) {
+            builder.giveLeftover(withAmount(item, count));
+            return count;
+        }
+        Group<A> group = groupOf(item);
+        int pos = nextGiveCandidate(group, 0);
+        while (pos >= 0 && count > 0) {
+            int amount;
+            if (empties.get(pos)) {
+                amount = Math.min(maxStack, count);
+                items[pos] = item;
+                amounts[pos] = amount;
+                empties.clear(pos);
+                group.positions.set(pos);
+            } else {
+                amount = Math.min(maxStack - amounts[pos], count);
+                if (amount >= 1) {
+                    amounts[pos] += amount;
+                }
+            }
+            if (amount >= 1) {
+                touched.set(pos);
+                builder.diff(slots[pos], item, amount);
+                count -= amount;
+            }
+            pos = nextGiveCandidate(group, pos + 1);
+        }
+        if (count >= 1) {
+            builder.giveLeftover(withAmount(item, count));
+        }
+        return count;
+    }
+
+    /**
+     * @see InventoryPatch.Builder#separateDiff()
+     */
+    void separateDiff() {
+        builder.separateDiff();
+    }
+
+    /**
+     * Computes the largest {@code n} for which taking every input and then giving every output,
+     * each with its amount multiplied by {@code n}, would succeed. Each candidate is checked on
+     * the pending amounts alone, without recording anything.
+     *
+     * <p>Feasibility is not monotonic in {@code n}: a larger take may empty a slot that an
+     * output needs. The range is therefore split at the counts where a take empties another
+     * slot, and each part is binary searched from the highest one down.</p>
+     *
+     * @param inputs  non-empty items to take, in order
+     * @param outputs non-empty items to give, in order
+     */
+    int maxRepeat(List<A> inputs, List<A> outputs) {
+        long high = Integer.MAX_VALUE;
+        Map<Group<A>, Long> needs = new IdentityHashMap<>();
+        for (A item : inputs) {
+            needs.merge(groupOf(item), (long) itemOps.getAmount(item), Long::sum);
+            high = Math.min(high, Integer.MAX_VALUE / itemOps.getAmount(item));
+        }
+        for (A item : outputs) {
+            long capacity = Math.min((long) size * Math.max(itemOps.getMaxStackSize(item), 0), Integer.MAX_VALUE);
+            high = Math.min(high, capacity / itemOps.getAmount(item));
+        }
+        TreeSet<Long> starts = new TreeSet<>();
+        starts.add(0L);
+        for (Map.Entry<Group<A>, Long> pair : needs.entrySet()) {
+            long need = pair.getValue();
+            long prefix = 0;
+            BitSet positions = pair.getKey().positions;
+            for (int pos = positions.nextSetBit(0); pos >= 0; pos = positions.nextSetBit(pos + 1)) {
+                prefix += amounts[pos];
+                long emptiedAt = (prefix + need - 1) / need;
+                if (emptiedAt <= high) {
+                    starts.add(emptiedAt);
+                }
+            }
+            high = Math.min(high, prefix / need);
+        }
+        long end = high;
+        for (long start : starts.headSet(high, true).descendingSet()) {
+            if (fits((int) start, inputs, outputs)) {
+                long low = start;
+                while (low < end) {
+                    long mid = (low + end + 1) >>> 1;
+                    if (fits((int) mid, inputs, outputs)) {
+                        low = mid;
+                    } else {
+                        end = mid - 1;
+                    }
+                }
+                return (int) low;
+            }
+            end = start - 1;
+        }
+        return 0;
+    }
+
+    /**
+     * @return whether giving {@code items} in order would leave nothing over, checked on the
+     * pending amounts alone without recording anything
+     */
+    boolean fits(List<A> items) {
+        return fits(1, List.of(), items);
+    }
+
+    private boolean fits(int times, List<A> inputs, List<A> outputs) {
+        int[] pending = Arrays.copyOf(amounts, size);
+        BitSet free = (BitSet) empties.clone();
+        for (A item : inputs) {
+            long count = (long) itemOps.getAmount(item) * times;
+            BitSet positions = groupOf(item).positions;
+            for (int pos = positions.nextSetBit(0); pos >= 0 && count > 0; pos = positions.nextSetBit(pos + 1)) {
+                int amount = (int) Math.min(count, pending[pos]);
+                pending[pos] -= amount;
+                count -= amount;
+                if (pending[pos] <= 0) {
+                    free.set(pos);
+                }
+            }
+            if (count > 0) {
+                return false;
+            }
+        }
+        Map<Group<A>, BitSet> filled = new IdentityHashMap<>();
+        for (A item : outputs) {
+            long count = (long) itemOps.getAmount(item) * times;
+            int maxStack = itemOps.getMaxStackSize(item);
+            if (maxStack <= 0) {
+                return false;
+            }
+            Group<A> group = groupOf(item);
+            BitSet similar = filled.computeIfAbsent(group, g -> new BitSet());
+            similar.or(group.positions);
+            similar.andNot(free);
+            for (int pos = nextCandidate(free, similar, 0); pos >= 0 && count > 0; pos = nextCandidate(free, similar, pos + 1)) {
+                if (free.get(pos)) {
+                    pending[pos] = (int) Math.min(maxStack, count);
+                    free.clear(pos);
+                    similar.set(pos);
+                    count -= pending[pos];
+                } else if (pending[pos] < maxStack) {
+                    int amount = (int) Math.min(maxStack - pending[pos], count);
+                    pending[pos] += amount;
+                    count -= amount;
+                }
+            }
+            if (count > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds the patch holding the final state of every touched slot, the per-operation
+     * diff and the accumulated failures.
+     */
+    InventoryPatch<A> toPatch() {
+        for (int pos = touched.nextSetBit(0); pos >= 0; pos = touched.nextSetBit(pos + 1)) {
+            if (empties.get(pos)) {
+                builder.modify(slots[pos], itemOps.empty());
+            } else {
+                builder.modify(slots[pos], itemAt(pos), amounts[pos]);
+            }
+        }
+        return builder.build();
+    }
+
+    private int takeAt(int pos, int count) {
+        int amount = Math.min(count, amounts[pos]);
+        if (amount < 1) {
+            return 0;
+        }
+        builder.diff(slots[pos], itemAt(pos), amount);
+        amounts[pos] -= amount;
+        touched.set(pos);
+        if (amounts[pos] <= 0) {
+            items[pos] = null;
+            empties.set(pos);
+            for (Group<A> group : groups) {
+                group.positions.clear(pos);
+            }
+        }
+        return amount;
+    }
+
+    private int nextGiveCandidate(Group<A> group, int from) {
+        return nextCandidate(empties, group.positions, from);
+    }
+
+    private static int nextCandidate(BitSet empties, BitSet positions, int from) {
+        int empty = empties.nextSetBit(from);
+        int similar = positions.nextSetBit(from);
+        if (empty < 0 || similar < 0) {
+            return Math.max(empty, similar);
+        }
+        return Math.min(empty, similar);
+    }
+
+    /**
+     * Finds or creates the group of slots similar to {@code item}. The first group is built
+     * with a plain scan; from the second on, slots are bucketed once by
+     * {@link ItemStackOps#similarityHash(Object)} and only the matching bucket is compared.
+     */
+    private Group<A> groupOf(A item) {
+        int hash = itemOps.similarityHash(item);
+        Group<A> head = groupsByHash.get(hash);
+        for (Group<A> group = head; group != null; group = group.next) {
+            if (itemOps.isSimilar(group.representative, item)) {
+                return group;
+            }
+        }
+        Group<A> group = new Group<>(item, head);
+        if (groups.isEmpty()) {
+            for (int pos = empties.nextClearBit(0); pos < size; pos = empties.nextClearBit(pos + 1)) {
+                if (itemOps.isSimilar(itemAt(pos), item)) {
+                    group.positions.set(pos);
+                }
+            }
+        } else {
+            BitSet candidates = slotsByHash().get(hash);
+            for (int pos = candidates != null ? candidates.nextSetBit(0) : -1; pos >= 0; pos = candidates.nextSetBit(pos + 1)) {
+                if (!empties.get(pos) && itemOps.isSimilar(itemAt(pos), item)) {
+                    group.positions.set(pos);
+                }
+            }
+        }
+        groupsByHash.put(hash, group);
+        groups.add(group);
+        return group;
+    }
+
+    /**
+     * Slots by similarity hash, computed once. Slots filled later by {@link #give(Object)}
+     * are missing, but they already belong to the group of the item given.
+     */
+    private Map<Integer, BitSet> slotsByHash() {
+        if (slotsByHash == null) {
+            slotsByHash = new HashMap<>();
+            for (int pos = empties.nextClearBit(0); pos < size; pos = empties.nextClearBit(pos + 1)) {
+                slotsByHash.computeIfAbsent(itemOps.similarityHash(itemAt(pos)), hash -> new BitSet()).set(pos);
+            }
+        }
+        return slotsByHash;
+    }
+
+    @SuppressWarnings("unchecked")
+    private A itemAt(int pos) {
+        return (A) items[pos];
+    }
+
+    private A withAmount(A item, int amount) {
+        A newItem = itemOps.copy(item);
+        itemOps.setAmount(newItem, amount);
+        return newItem;
+    }
+
+    private static final class Group<A> {
+        private final A representative;
+        private final Group<A> next;
+        private final BitSet positions = new BitSet();
+
+        private Group(A representative, Group<A> next) {
+            this.representative = representative;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package io.typst.inventory;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for an inventory scan visiting at least
+ * {@link InventoryEvents#getScanSlotThreshold()} slots.
+ */
+@Name("io.typst.inventory.Scan")
+@Label("Inventory Scan")
+@Category("Inventory")
+@Description("A scan over the slots of an inventory")
+final class InventoryScanEvent extends jdk.jfr.Event {
+    @Label("Scan")
+    @Description("What the scan was for, e.g. findSlots or plan")
+    String scan;
+
+    @Label("Adapter")
+    @Description("Simple class name of the scanned inventory adapter")
+    String adapter;
+
+    @Label("Slots")
+    @Description("Slots visited")
+    int slots;
+}
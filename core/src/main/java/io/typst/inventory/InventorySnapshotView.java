@@ -3,8 +3,10 @@ package io.typst.inventory;
 import lombok.Value;
 import lombok.With;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 /**
@@ -23,6 +25,10 @@ import java.util.function.Predicate;
  * those changes will be observed through this view. If you need a truly frozen
  * snapshot, use {@link #toImmutable()} or wrap a copied map in a {@link MapInventoryAdapter} before constructing
  * this instance. Also {@link #updated(Map)} copies inventory to immutable.</p>
+ *
+ * <p>Returned patches keep references to this view's items and copy them only when first
+ * read, see {@link InventoryPatch}. Over a {@link InventoryAdapter#isLive() live} adapter,
+ * whose items change along with their slots, they copy while planning instead.</p>
  */
 @Value
 @With
@@ -60,33 +66,88 @@ public class InventorySnapshotView<A> implements Iterable<Map.Entry<Integer, A>>
     }
 
     /**
-     * Copies inventory as immutable
+     * Copies inventory as immutable. Dense slots are copied into a
+     * {@link PersistentInventoryAdapter}, sparse slots into an immutable map.
+     * A snapshot whose adapter is already immutable, see {@link InventoryAdapter#updated(Map)},
+     * is returned as is.
      *
      * @return immutable snapshot
      */
     public InventorySnapshotView<A> toImmutable() {
-        Map<Integer, A> map = new LinkedHashMap<>();
-        for (Map.Entry<Integer, @NotNull A> pair : inventory) {
-            A item = pair.getValue();
-            A newItem = itemOps.isEmpty(item) ? itemOps.empty() : item;
-            map.put(pair.getKey(), newItem);
+        InventoryAdapter<A> shared = inventory.updated(Collections.emptyMap());
+        if (shared != null) {
+            return shared == inventory ? this : withInventory(shared);
         }
-        return new InventorySnapshotView<>(new MapInventoryAdapter<>(Map.copyOf(map), itemOps.empty()), itemOps, emptyItemKey);
+        SlotBuffer<A> buffer = SlotBuffer.of(inventory);
+        InventoryAdapter<A> copied = buffer.isDense()
+                ? PersistentInventoryAdapter.of(buffer.toArray(buffer.size(), itemOps, true), itemOps.empty())
+                : new MapInventoryAdapter<>(Map.copyOf(buffer.toMap(itemOps, true)), itemOps.empty());
+        return new InventorySnapshotView<>(copied, itemOps, emptyItemKey);
     }
 
     /**
-     * Copies inventory as immutable updated with the given modifiedItems
+     * Copies inventory as immutable updated with the given modifiedItems. When the adapter of
+     * this snapshot can share its storage, such as a {@link PersistentInventoryAdapter} covering
+     * the modified slots, only the changed slots are copied and the rest is shared with this
+     * snapshot, which stays valid.
      *
      * @param modifiedItems overwritable items by slot
      * @return immutable snapshot
      */
     public InventorySnapshotView<A> updated(Map<Integer, A> modifiedItems) {
-        Map<Integer, A> newItems = new LinkedHashMap<>();
-        inventory.iterator().forEachRemaining(pair -> newItems.put(pair.getKey(), pair.getValue()));
+        InventoryAdapter<A> shared = inventory.updated(modifiedItems);
+        if (shared != null) {
+            return withInventory(shared);
+        }
+        SlotBuffer<A> buffer = SlotBuffer.of(inventory);
+        int denseLength = buffer.denseLengthWith(modifiedItems);
+        if (denseLength >= 0) {
+            Object[] array = buffer.toArray(denseLength, itemOps, false);
+            modifiedItems.forEach((slot, item) -> array[slot] = item);
+            return withInventory(PersistentInventoryAdapter.of(array, itemOps.empty()));
+        }
+        Map<Integer, A> newItems = buffer.toMap(itemOps, false);
         newItems.putAll(modifiedItems);
         return withInventory(new MapInventoryAdapter<>(Map.copyOf(newItems), itemOps.empty()));
     }
 
+    /**
+     * Returns this view with {@link ItemStackOps#getKeyFrom(Object)} memoized per item instance,
+     * for running several key-based queries against the same contents.
+     * Drop the returned view once the items it has seen may change.
+     *
+     * <p>The cache only hits when the adapter returns the same instances on every read, so
+     * call it on a {@link #toImmutable()} snapshot rather than on a live view whose adapter
+     * copies items per read, such as a Bukkit inventory.</p>
+     *
+     * @return view with a {@link KeyCachingItemStackOps}
+     */
+    public InventorySnapshotView<A> withKeyCache() {
+        return itemOps instanceof KeyCachingItemStackOps
+                ? this
+                : withItemOps(new KeyCachingItemStackOps<>(itemOps));
+    }
+
+    /**
+     * Runs a read-only {@code query} on this view and reports it to {@code metrics} under
+     * {@code operation}, with nothing written. Copies made later, when a returned
+     * {@link InventoryPatch} is read, are not counted.
+     *
+     * <pre>{@code
+     * boolean fits = view.measure(metrics, "lootPreview", v -> v.canFit(loot));
+     * }</pre>
+     */
+    public <R> R measure(InventoryMetrics metrics, String operation, Function<InventorySnapshotView<A>, R> query) {
+        if (metrics == InventoryMetrics.NOOP) {
+            return query.apply(this);
+        }
+        MeteredItemStackOps<A> meteredOps = new MeteredItemStackOps<>(itemOps);
+        long start = System.nanoTime();
+        R result = query.apply(withItemOps(meteredOps));
+        metrics.record(operation, System.nanoTime() - start, meteredOps.getSlotsScanned(), meteredOps.getCopies(), 0);
+        return result;
+    }
+
     @Override
     public @NotNull Iterator<Map.Entry<Integer, A>> iterator() {
         return inventory.iterator();
@@ -114,7 +175,11 @@ public class InventorySnapshotView<A> implements Iterable<Map.Entry<Integer, A>>
         if (itemOps.isEmpty(item)) {
             return Collections.emptyMap();
         }
-        return findSpaces(itemOps.getAmount(item), itemOps.getMaxStackSize(item), a -> itemOps.isSimilar(a, item));
+        int amount = itemOps.getAmount(item);
+        int maxStack = itemOps.getMaxStackSize(item);
+        Predicate<A> predicate = a -> itemOps.isSimilar(a, item);
+        Map<Integer, Integer> spaces = inventory.findSpaces(amount, maxStack, () -> itemOps.getKeyFrom(item), predicate);
+        return spaces != null ? spaces : findSpaces(amount, maxStack, predicate);
     }
 
     /**
@@ -131,7 +196,8 @@ public class InventorySnapshotView<A> implements Iterable<Map.Entry<Integer, A>>
         int maxStack = item != null
                 ? itemOps.getMaxStackSize(item)
                 : 0;
-        return findSpaces(amount, maxStack, a -> itemOps.getKeyFrom(a).equals(key));
+        Map<Integer, Integer> spaces = inventory.findSpaces(amount, maxStack, () -> key, a -> true);
+        return spaces != null ? spaces : findSpaces(amount, maxStack, a -> itemOps.getKeyFrom(a).equals(key));
     }
 
     /**
@@ -147,26 +213,9 @@ public class InventorySnapshotView<A> implements Iterable<Map.Entry<Integer, A>>
         if (amount <= 0 || maxStack <= 0) {
             return Collections.emptyMap();
         }
-        Map<Integer, Integer> map = new LinkedHashMap<>();
-        for (Map.Entry<Integer, A> pair : inventory) {
-            if (amount <= 0) {
-                break;
-            }
-            Integer slot = pair.getKey();
-            A item = pair.getValue();
-            if (itemOps.isEmpty(item)) {
-                int spaceAmount = Math.min(maxStack, amount);
-                map.put(slot, spaceAmount);
-                amount -= spaceAmount;
-            } else if (predicate.test(item)) {
-                int spaceAmount = Math.min(maxStack - itemOps.getAmount(item), amount);
-                if (spaceAmount >= 1) {
-                    map.put(slot, spaceAmount);
-                    amount -= spaceAmount;
-                }
-            }
-        }
-        return map;
+        SpaceCollector<A> collector = new SpaceCollector<>(itemOps, amount, maxStack, predicate);
+        InventoryEvents.forEachSlot("findSpaces", inventory, itemOps, collector);
+        return collector.spaces;
     }
 
     /**
@@ -185,7 +234,8 @@ public class InventorySnapshotView<A> implements Iterable<Map.Entry<Integer, A>>
      */
     @NotNull
     public Map<Integer, Integer> findSlots(ItemKey key, int amount) {
-        return findSlots(amount, a -> itemOps.getKeyFrom(a).equals(key));
+        Map<Integer, Integer> slots = inventory.findSlots(key, amount);
+        return slots != null ? slots : findSlots(amount, a -> itemOps.getKeyFrom(a).equals(key));
     }
 
     /**
@@ -201,34 +251,33 @@ public class InventorySnapshotView<A> implements Iterable<Map.Entry<Integer, A>>
         if (count <= 0) {
             return Collections.emptyMap();
         }
-        Map<Integer, Integer> ret = new LinkedHashMap<>();
-        for (Map.Entry<Integer, A> pair : inventory) {
-            if (count <= 0) {
-                break;
-            }
-            Integer slot = pair.getKey();
-            A x = pair.getValue();
-            if (predicate.test(x)) {
-                int amount = Math.min(count, itemOps.getAmount(x));
-                if (amount >= 1) {
-                    count -= amount;
-                    ret.put(slot, amount);
-                }
-            }
-        }
-        return ret;
+        SlotCollector<A> collector = new SlotCollector<>(itemOps, count, predicate);
+        InventoryEvents.forEachSlot("findSlots", inventory, itemOps, collector);
+        return collector.slots;
     }
 
+    /**
+     * Takes all given items in order. Each item is planned against the inventory as left
+     * by the previous items, in a single scan of the inventory.
+     *
+     * @param items the items to take
+     * @return the combined patch
+     */
     @NotNull
     public InventoryPatch<A> takeItems(Iterable<A> items) {
-        InventoryPatch<A> acc = InventoryPatch.empty();
-        for (A item : items) {
-            InventoryPatch<A> result = itemOps.isEmpty(item)
+        A single = singleItem(items);
+        if (single != null) {
+            return itemOps.isEmpty(single)
                     ? InventoryPatch.empty()
-                    : takeItem(itemOps.getAmount(item), item, a -> itemOps.isSimilar(a, item));
-            acc = acc.plus(result);
+                    : takeItem(itemOps.getAmount(single), single, a -> itemOps.isSimilar(a, single));
         }
-        return acc;
+        InventoryPlanner<A> planner = InventoryPlanner.of(inventory, itemOps);
+        for (A item : items) {
+            if (!itemOps.isEmpty(item)) {
+                planner.take(item);
+            }
+        }
+        return planner.toPatch();
     }
 
     @SafeVarargs
@@ -250,98 +299,439 @@ public class InventorySnapshotView<A> implements Iterable<Map.Entry<Integer, A>>
      */
     @NotNull
     public InventoryPatch<A> takeItem(int count, A baseItem, Predicate<A> predicate) {
-        Map<Integer, Integer> slots = findSlots(count, predicate);
-        if (slots.isEmpty()) {
-            A remainItem = itemOps.copy(baseItem);
-            itemOps.setAmount(remainItem, count);
-            return InventoryPatch.fromTakeResult(Map.of(), List.of(), remainItem);
-        }
+        InventoryPatch.Builder<A> builder = patchBuilder();
+        takeItem(builder, count, baseItem, predicate);
+        return builder.build();
+    }
+
+    private void takeItem(InventoryPatch.Builder<A> builder, int count, A baseItem, Predicate<A> predicate) {
+        takeItem(builder, count, baseItem, findSlots(count, predicate));
+    }
 
-        Map<Integer, A> ret = new LinkedHashMap<>();
-        List<Map.Entry<Integer, A>> diff = new ArrayList<>();
+    private void takeItem(InventoryPatch.Builder<A> builder, int count, A baseItem, Map<Integer, Integer> slots) {
         for (Map.Entry<Integer, Integer> pair : slots.entrySet()) {
             Integer slot = pair.getKey();
             Integer amount = pair.getValue();
             A theItem = inventory.get(slot);
-            int theAmount = itemOps.getAmount(theItem);
-            int newAmount = theAmount - amount;
-            A newItem = itemOps.copy(theItem);
+            int newAmount = itemOps.getAmount(theItem) - amount;
             if (newAmount <= 0) {
-                ret.put(slot, itemOps.empty());
+                builder.modify(slot, itemOps.empty());
             } else {
-                itemOps.setAmount(newItem, theAmount - amount);
-                ret.put(slot, newItem);
+                builder.modify(slot, theItem, newAmount);
             }
-
-            A diffItem = itemOps.copy(theItem);
-            itemOps.setAmount(diffItem, amount);
-            diff.add(new AbstractMap.SimpleEntry<>(pair.getKey(), diffItem));
+            builder.diff(slot, theItem, amount);
             count -= amount;
         }
-        A remainingItem = null;
         if (count >= 1) {
-            remainingItem = itemOps.copy(baseItem);
+            A remainingItem = itemOps.copy(baseItem);
             itemOps.setAmount(remainingItem, count);
+            builder.takeRemaining(remainingItem);
         }
-        return InventoryPatch.fromTakeResult(ret, diff, remainingItem);
     }
 
     @NotNull
     public InventoryPatch<A> takeItem(int count, ItemKey key) {
-        return takeItem(count, itemOps.create(key), item -> itemOps.getKeyFrom(item).equals(key));
+        InventoryPatch.Builder<A> builder = patchBuilder();
+        takeItem(builder, count, itemOps.create(key), findSlots(key, count));
+        return builder.build();
+    }
+
+    /**
+     * Evaluates {@code requirements} in a single scan of this inventory.
+     *
+     * @return the found and missing amounts per requirement
+     */
+    @NotNull
+    public ItemRequirements.Result<A> check(ItemRequirements<A> requirements) {
+        return requirements.evaluate(inventory, itemOps);
+    }
+
+    /**
+     * Takes all {@code requirements}, planned from the same single scan as
+     * {@link #check(ItemRequirements)}. Unsatisfied amounts are reported as
+     * {@link InventoryFailure#getTakeRemainingItems()}.
+     */
+    @NotNull
+    public InventoryPatch<A> takeItems(ItemRequirements<A> requirements) {
+        ItemRequirements.Result<A> result = check(requirements);
+        InventoryPatch.Builder<A> builder = patchBuilder();
+        for (int i = 0; i < result.getAllocations(); i++) {
+            int slot = result.getSlot(i);
+            A theItem = result.getItem(i);
+            int taken = result.getTaken(i);
+            int newAmount = itemOps.getAmount(theItem) - taken;
+            if (newAmount <= 0) {
+                builder.modify(slot, itemOps.empty());
+            } else {
+                builder.modify(slot, theItem, newAmount);
+            }
+            builder.diff(slot, theItem, taken);
+        }
+        for (int i = 0; i < result.size(); i++) {
+            int missing = result.getMissing(i);
+            if (missing >= 1) {
+                A baseItem = requirements.baseItem(i);
+                builder.takeRemaining(baseItem != null ? withAmount(baseItem, missing) : itemOps.empty());
+            }
+        }
+        return builder.build();
+    }
+
+    private InventoryPatch.Builder<A> patchBuilder() {
+        return InventoryPatch.builder(itemOps, !inventory.isLive());
+    }
+
+    private A withAmount(A item, int amount) {
+        A copy = itemOps.copy(item);
+        itemOps.setAmount(copy, amount);
+        return copy;
+    }
+
+    /**
+     * Computes the patch that turns this snapshot into {@code other}, holding only the slots
+     * whose contents changed. Slots are compared by identity, then emptiness and amount, and
+     * only then with {@link ItemStackOps#isSimilar(Object, Object)}.
+     *
+     * <p>Each changed slot is in {@link InventoryPatch#getModifiedItems()} with a copy of its new
+     * item. {@link InventoryPatch#getDiff()} holds non-negative entries with the same meaning as
+     * those of take and give patches: first a removal entry per slot that lost items (the old
+     * item with the removed amount), then an addition entry per slot that gained items (the new
+     * item with the added amount), kept apart like the take and give of
+     * {@link #exchange(Iterable, Iterable)}. A slot whose item was replaced by a dissimilar one
+     * has both. Like other planned patches, the copies are made when the items are first read,
+     * so neither snapshot is aliased by the patch.</p>
+     *
+     * @param other the newer snapshot
+     * @return the changes from this snapshot to {@code other}
+     */
+    @NotNull
+    public InventoryPatch<A> diff(InventorySnapshotView<A> other) {
+        return diff(other, false);
+    }
+
+    /**
+     * @param other  the newer snapshot
+     * @param sparse if {@code true}, only slots non-empty in either snapshot are compared, so
+     *               empty ranges are skipped without reading them when an adapter can tell
+     *               its non-empty slots cheaply ({@link IndexedInventoryAdapter},
+     *               {@link MappedInventoryAdapter})
+     * @see #diff(InventorySnapshotView)
+     */
+    @NotNull
+    public InventoryPatch<A> diff(InventorySnapshotView<A> other, boolean sparse) {
+        boolean deferCopies = !inventory.isLive() && !other.getInventory().isLive();
+        InventoryPatch.Builder<A> builder = InventoryPatch.builder(itemOps, deferCopies);
+        InventoryPatch.Builder<A> additions = InventoryPatch.builder(itemOps, deferCopies);
+        InventoryAdapter<A> newer = other.getInventory();
+        if (sparse) {
+            BitSet slots = nonEmptySlots(inventory);
+            slots.or(nonEmptySlots(newer));
+            for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+                diffSlot(builder, additions, slot, inventory.get(slot), newer.get(slot));
+            }
+            builder.appendDiff(additions);
+            return builder.build();
+        }
+        BitSet seen = new BitSet();
+        InventoryEvents.forEachSlot("diff", inventory, itemOps, (slot, item) -> {
+            seen.set(slot);
+            diffSlot(builder, additions, slot, item, newer.get(slot));
+            return true;
+        });
+        // slots both snapshots hold were compared, and counted, by the first scan
+        int[] added = {0};
+        InventoryEvents.forEachSlot("diff", newer, (slot, item) -> {
+            if (!seen.get(slot)) {
+                added[0]++;
+                diffSlot(builder, additions, slot, itemOps.empty(), item);
+            }
+            return true;
+        });
+        InventoryEvents.countSlots(itemOps, added[0]);
+        builder.appendDiff(additions);
+        return builder.build();
+    }
+
+    /**
+     * Records the change of one slot: its new item and removal diff entry in {@code builder},
+     * its addition diff entry in {@code additions}.
+     */
+    private void diffSlot(InventoryPatch.Builder<A> builder, InventoryPatch.Builder<A> additions, int slot, A oldItem, A newItem) {
+        if (oldItem == newItem) {
+            return;
+        }
+        boolean oldEmpty = itemOps.isEmpty(oldItem);
+        boolean newEmpty = itemOps.isEmpty(newItem);
+        if (oldEmpty && newEmpty) {
+            return;
+        }
+        int oldAmount = oldEmpty ? 0 : itemOps.getAmount(oldItem);
+        int newAmount = newEmpty ? 0 : itemOps.getAmount(newItem);
+        boolean similar = !oldEmpty && !newEmpty && itemOps.isSimilar(oldItem, newItem);
+        if (similar && oldAmount == newAmount) {
+            return;
+        }
+        if (newEmpty) {
+            builder.modify(slot, itemOps.empty());
+        } else {
+            builder.modify(slot, newItem, newAmount);
+        }
+        int removed = similar ? oldAmount - newAmount : oldAmount;
+        int added = similar ? newAmount - oldAmount : newAmount;
+        if (removed >= 1) {
+            builder.diff(slot, oldItem, removed);
+        }
+        if (added >= 1) {
+            additions.diff(slot, newItem, added);
+        }
+    }
+
+    /**
+     * @return the slots of {@code inventory} holding a non-empty item
+     */
+    private BitSet nonEmptySlots(InventoryAdapter<A> inventory) {
+        BitSet indexed = inventory.nonEmptySlots();
+        if (indexed != null) {
+            return indexed;
+        }
+        BitSet slots = new BitSet();
+        InventoryEvents.forEachSlot("nonEmptySlots", inventory, itemOps, (slot, item) -> {
+            if (!itemOps.isEmpty(item)) {
+                slots.set(slot);
+            }
+            return true;
+        });
+        return slots;
+    }
+
+    /**
+     * Computes how much of {@code item} could be given: the room left in partial stacks of
+     * similar items plus a full stack per empty slot, in one scan without copying any item.
+     */
+    public int maxFittable(A item) {
+        int maxStack = itemOps.getMaxStackSize(item);
+        if (itemOps.isEmpty(item) || maxStack <= 0) {
+            return 0;
+        }
+        long[] room = {0};
+        InventoryEvents.forEachSlot("maxFittable", inventory, itemOps, (slot, a) -> {
+            if (itemOps.isEmpty(a)) {
+                room[0] += maxStack;
+            } else if (itemOps.isSimilar(a, item)) {
+                room[0] += Math.max(maxStack - itemOps.getAmount(a), 0);
+            }
+            return true;
+        });
+        return (int) Math.min(room[0], Integer.MAX_VALUE);
+    }
+
+    /**
+     * Checks whether {@link #giveItems(Iterable)} would leave nothing over, without building a
+     * patch or copying any item. Several items are checked in order on one scan, so that items
+     * competing for the same empty slots are accounted for exactly as when giving them.
+     *
+     * <p>Nothing to give, i.e. no items or only empty ones, always fits, whereas
+     * {@link #giveItems(Iterable)} returns an empty patch that is not
+     * {@link InventoryPatch#isSuccess() successful} since it modifies nothing.</p>
+     */
+    public boolean canFit(Iterable<A> items) {
+        A single = singleItem(items);
+        if (single != null) {
+            return itemOps.isEmpty(single) || itemOps.getAmount(single) <= maxFittable(single);
+        }
+        List<A> gives = nonEmptyItems(items);
+        return gives.isEmpty() || InventoryPlanner.of(inventory, itemOps).fits(gives);
+    }
+
+    @SafeVarargs
+    public final boolean canFit(A... items) {
+        return canFit(List.of(items));
     }
 
     public boolean hasItems(A x) {
         int amount = itemOps.getAmount(x);
+        int similar = inventory.countSimilar(x, amount);
+        if (similar >= 0) {
+            return amount <= similar;
+        }
         return amount <= findSlots(x).values().stream()
                 .mapToInt(Integer::intValue)
                 .sum();
     }
 
     public int countItems(ItemKey x) {
+        int count = inventory.count(x);
+        if (count >= 0) {
+            return count;
+        }
         return findSlots(x, Integer.MAX_VALUE).values().stream()
                 .mapToInt(Integer::intValue)
                 .sum();
     }
 
+    /**
+     * Gives all given items in order. Each item is planned against the inventory as left
+     * by the previous items, in a single scan of the inventory, so items of the same kind
+     * never claim the same space twice. Any amount that does not fit is reported in
+     * {@link InventoryFailure#getGiveLeftoverItems()}.
+     *
+     * @param items the items to give
+     * @return the combined patch
+     */
     public InventoryPatch<A> giveItems(Iterable<A> items) {
-        InventoryPatch<A> patch = InventoryPatch.empty();
+        A single = singleItem(items);
+        if (single != null) {
+            return itemOps.isEmpty(single)
+                    ? InventoryPatch.empty()
+                    : giveItem(single);
+        }
+        InventoryPlanner<A> planner = InventoryPlanner.of(inventory, itemOps);
         for (A item : items) {
-            Map<Integer, Integer> spaces = findSpaces(item);
-            InventoryPatch<A> thePatch = InventoryPatch.empty();
-
-            if (!spaces.isEmpty()) {
-                Map<Integer, A> ret = new LinkedHashMap<>();
-                List<Map.Entry<Integer, A>> diff = new ArrayList<>();
-                int leftoverAmount = itemOps.getAmount(item);
-                for (Map.Entry<Integer, Integer> pair : spaces.entrySet()) {
-                    Integer slot = pair.getKey();
-                    Integer amount = pair.getValue();
-                    A theItem = inventory.get(slot);
-                    A newItem = itemOps.copy(item);
-                    itemOps.setAmount(newItem, itemOps.getAmount(theItem) + amount);
-                    ret.put(slot, newItem);
-                    leftoverAmount -= amount;
-
-                    A diffItem = itemOps.copy(theItem);
-                    itemOps.setAmount(diffItem, amount);
-                    diff.add(new AbstractMap.SimpleEntry<>(pair.getKey(), diffItem));
-                }
-                A leftoverItem = null;
-                if (leftoverAmount >= 1) {
-                    A leftover = itemOps.copy(item);
-                    itemOps.setAmount(leftover, leftoverAmount);
-                    leftoverItem = leftover;
-                }
-                thePatch = InventoryPatch.fromGiveResult(ret, diff, leftoverItem);
+            if (!itemOps.isEmpty(item)) {
+                planner.give(item);
             }
-            patch = patch.plus(thePatch);
         }
-        return patch;
+        return planner.toPatch();
+    }
+
+    private InventoryPatch<A> giveItem(A item) {
+        InventoryPatch.Builder<A> builder = patchBuilder();
+        int leftoverAmount = itemOps.getAmount(item);
+        for (Map.Entry<Integer, Integer> pair : findSpaces(item).entrySet()) {
+            Integer slot = pair.getKey();
+            Integer amount = pair.getValue();
+            A theItem = inventory.get(slot);
+            builder.modify(slot, item, (itemOps.isEmpty(theItem) ? 0 : itemOps.getAmount(theItem)) + amount);
+            builder.diff(slot, item, amount);
+            leftoverAmount -= amount;
+        }
+        if (leftoverAmount >= 1) {
+            A leftover = itemOps.copy(item);
+            itemOps.setAmount(leftover, leftoverAmount);
+            builder.giveLeftover(leftover);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Single-item requests skip the planner and scan with early exit.
+     */
+    private @Nullable A singleItem(Iterable<A> items) {
+        if (items instanceof Collection && ((Collection<?>) items).size() == 1) {
+            return items.iterator().next();
+        }
+        return null;
     }
 
     @SafeVarargs
     public final InventoryPatch<A> giveItems(A... items) {
         return giveItems(List.of(items));
     }
+
+    /**
+     * Takes all {@code inputs} and then gives all {@code outputs}, planned together in a single
+     * scan: the outputs see the slots freed by the inputs. Diff entries of the take and of the
+     * give are kept apart, even on the same slot.
+     *
+     * @param inputs  the items to take
+     * @param outputs the items to give
+     * @return the combined patch, failed if any input is missing or any output does not fit
+     */
+    @NotNull
+    public InventoryPatch<A> exchange(Iterable<A> inputs, Iterable<A> outputs) {
+        InventoryPlanner<A> planner = InventoryPlanner.of(inventory, itemOps);
+        for (A item : inputs) {
+            if (!itemOps.isEmpty(item)) {
+                planner.take(item);
+            }
+        }
+        planner.separateDiff();
+        for (A item : outputs) {
+            if (!itemOps.isEmpty(item)) {
+                planner.give(item);
+            }
+        }
+        return planner.toPatch();
+    }
+
+    /**
+     * Computes how many times {@link #exchange(Iterable, Iterable)} could be done at once, i.e.
+     * the largest {@code n} for which the exchange with every amount multiplied by {@code n}
+     * succeeds. Candidates are checked arithmetically on the scanned amounts and binary
+     * searched between the counts at which the inputs empty another slot, without planning
+     * any patch.
+     *
+     * @return the exchange count, {@link Integer#MAX_VALUE} if there is nothing to exchange
+     */
+    public int maxExchangeCount(Iterable<A> inputs, Iterable<A> outputs) {
+        List<A> takes = nonEmptyItems(inputs);
+        List<A> gives = nonEmptyItems(outputs);
+        return InventoryPlanner.of(inventory, itemOps).maxRepeat(takes, gives);
+    }
+
+    private List<A> nonEmptyItems(Iterable<A> items) {
+        List<A> list = new ArrayList<>();
+        for (A item : items) {
+            if (!itemOps.isEmpty(item) && itemOps.getAmount(item) >= 1) {
+                list.add(item);
+            }
+        }
+        return list;
+    }
+
+    private static final class SpaceCollector<A> implements InventoryAdapter.SlotVisitor<A> {
+        private final ItemStackOps<A> itemOps;
+        private final int maxStack;
+        private final Predicate<A> predicate;
+        private final Map<Integer, Integer> spaces = new LinkedHashMap<>();
+        private int amount;
+
+        private SpaceCollector(ItemStackOps<A> itemOps, int amount, int maxStack, Predicate<A> predicate) {
+            this.itemOps = itemOps;
+            this.amount = amount;
+            this.maxStack = maxStack;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public boolean visit(int slot, A item) {
+            if (itemOps.isEmpty(item)) {
+                int spaceAmount = Math.min(maxStack, amount);
+                spaces.put(slot, spaceAmount);
+                amount -= spaceAmount;
+            } else if (predicate.test(item)) {
+                int spaceAmount = Math.min(maxStack - itemOps.getAmount(item), amount);
+                if (spaceAmount >= 1) {
+                    spaces.put(slot, spaceAmount);
+                    amount -= spaceAmount;
+                }
+            }
+            return amount > 0;
+        }
+    }
+
+    private static final class SlotCollector<A> implements InventoryAdapter.SlotVisitor<A> {
+        private final ItemStackOps<A> itemOps;
+        private final Predicate<A> predicate;
+        private final Map<Integer, Integer> slots = new LinkedHashMap<>();
+        private int count;
+
+        private SlotCollector(ItemStackOps<A> itemOps, int count, Predicate<A> predicate) {
+            this.itemOps = itemOps;
+            this.count = count;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public boolean visit(int slot, A item) {
+            if (predicate.test(item)) {
+                int amount = Math.min(count, itemOps.getAmount(item));
+                if (amount >= 1) {
+                    count -= amount;
+                    slots.put(slot, amount);
+                }
+            }
+            return count > 0;
+        }
+    }
 }
@@ -0,0 +1,101 @@
+package io.typst.inventory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups items by {@link ItemStackOps#isSimilar(Object, Object)}, bucketed by
+ * {@link ItemStackOps#similarityHash(Object)} so that {@code isSimilar} only runs against
+ * groups of the same fingerprint. Amounts are summed as longs and the first item of each
+ * group is kept as is; items are copied only by {@link #toItems()}, once per group.
+ * Not thread-safe; partial groupings are combined with {@link #addAll(ItemGroups)}.
+ */
+final class ItemGroups<A> {
+    private final ItemStackOps<A> itemOps;
+    private final Map<Integer, Group<A>> buckets = new HashMap<>();
+    private final List<Group<A>> groups = new ArrayList<>();
+
+    ItemGroups(ItemStackOps<A> itemOps) {
+        this.itemOps = itemOps;
+    }
+
+    void add(A item) {
+        add(item, itemOps.getAmount(item));
+    }
+
+    void addAll(ItemGroups<A> other) {
+        for (Group<A> group : other.groups) {
+            add(group.representative, group.amount);
+        }
+    }
+
+    /**
+     * @return one copy per group with the summed amount, clamped to {@link Integer#MAX_VALUE},
+     * in order of first appearance
+     */
+    List<A> toItems() {
+        List<A> items = new ArrayList<>(groups.size());
+        for (Group<A> group : groups) {
+            items.add(withAmount(itemOps, group.representative, group.amount));
+        }
+        return items;
+    }
+
+    private void add(A item, long amount) {
+        int hash = itemOps.similarityHash(item);
+        Group<A> head = buckets.get(hash);
+        for (Group<A> group = head; group != null; group = group.next) {
+            if (itemOps.isSimilar(group.representative, item)) {
+                group.amount += amount;
+                return;
+            }
+        }
+        Group<A> group = new Group<>(item, amount, head);
+        buckets.put(hash, group);
+        groups.add(group);
+    }
+
+    /**
+     * Sums amounts by {@link ItemKey}, copying the first item of each key once.
+     *
+     * @see ItemStackOps#getHeaderMapFrom(Iterable)
+     */
+    static <A> Map<ItemKey, A> byKey(ItemStackOps<A> itemOps, Iterable<A> items) {
+        Map<ItemKey, Group<A>> groups = new HashMap<>();
+        for (A item : items) {
+            ItemKey key = itemOps.getKeyFrom(item);
+            Group<A> group = groups.get(key);
+            if (group == null) {
+                groups.put(key, new Group<>(item, itemOps.getAmount(item), null));
+            } else {
+                group.amount += itemOps.getAmount(item);
+            }
+        }
+        Map<ItemKey, A> map = new HashMap<>(groups.size() * 4 / 3 + 1);
+        for (Map.Entry<ItemKey, Group<A>> pair : groups.entrySet()) {
+            Group<A> group = pair.getValue();
+            map.put(pair.getKey(), withAmount(itemOps, group.representative, group.amount));
+        }
+        return map;
+    }
+
+    private static <A> A withAmount(ItemStackOps<A> itemOps, A item, long amount) {
+        A newItem = itemOps.copy(item);
+        itemOps.setAmount(newItem, (int) Math.min(amount, Integer.MAX_VALUE));
+        return newItem;
+    }
+
+    private static final class Group<A> {
+        private final A representative;
+        private final Group<A> next;
+        private long amount;
+
+        private Group(A representative, long amount, Group<A> next) {
+            this.representative = representative;
+            this.amount = amount;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package io.typst.inventory;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A reusable set of required items, compiled once and evaluated in a single inventory scan
+ * by {@link InventorySnapshotView#check(ItemRequirements)} and
+ * {@link InventorySnapshotView#takeItems(ItemRequirements)}.
+ *
+ * <p>Requirements are indexed by {@link ItemKey}, so each non-empty slot costs one
+ * {@link ItemStackOps#getKeyFrom(Object)} and an {@link ItemStackOps#isSimilar(Object, Object)}
+ * only against item requirements of the same key; similar items are assumed to share a key.
+ * A slot matching several requirements fills them in the order they were added. Evaluating
+ * many requirement sets against one snapshot benefits from
+ * {@link InventorySnapshotView#withKeyCache()}.</p>
+ *
+ * <pre>{@code
+ * ItemRequirements<ItemStack> recipe = ItemRequirements.builder(itemOps)
+ *         .item(ironIngot)
+ *         .key(stickKey, 2)
+ *         .build();
+ * boolean affordable = view.check(recipe).isSatisfied();
+ * }</pre>
+ */
+public final class ItemRequirements<A> {
+    private final ItemStackOps<A> itemOps;
+    private final List<Requirement<A>> requirements;
+    private final Map<ItemKey, int[]> indicesByKey;
+
+    private ItemRequirements(ItemStackOps<A> itemOps, List<Requirement<A>> requirements) {
+        this.itemOps = itemOps;
+        this.requirements = requirements;
+        Map<ItemKey, int[]> indicesByKey = new HashMap<>();
+        for (int i = 0; i < requirements.size(); i++) {
+            int[] indices = indicesByKey.getOrDefault(requirements.get(i).key, new int[0]);
+            indices = Arrays.copyOf(indices, indices.length + 1);
+            indices[indices.length - 1] = i;
+            indicesByKey.put(requirements.get(i).key, indices);
+        }
+        this.indicesByKey = indicesByKey;
+    }
+
+    public static <A> Builder<A> builder(ItemStackOps<A> itemOps) {
+        return new Builder<>(itemOps);
+    }
+
+    public int size() {
+        return requirements.size();
+    }
+
+    /**
+     * Scans {@code inventory} once with {@code itemOps}, which must be equivalent to the ops
+     * the requirements were built with, e.g. a {@link KeyCachingItemStackOps} over them.
+     */
+    Result<A> evaluate(InventoryAdapter<A> inventory, ItemStackOps<A> itemOps) {
+        Result<A> result = new Result<>(requirements);
+        int[] outstanding = {result.countOutstanding()};
+        if (outstanding[0] == 0) {
+            return result;
+        }
+        InventoryEvents.forEachSlot("requirements", inventory, itemOps, (slot, item) -> {
+            if (itemOps.isEmpty(item)) {
+                return true;
+            }
+            int[] indices = indicesByKey.get(itemOps.getKeyFrom(item));
+            if (indices == null) {
+                return true;
+            }
+            int amount = itemOps.getAmount(item);
+            int taken = 0;
+            for (int index : indices) {
+                Requirement<A> requirement = requirements.get(index);
+                int need = requirement.amount - result.found[index];
+                if (need <= 0 || (requirement.item != null && !itemOps.isSimilar(requirement.item, item))) {
+                    continue;
+                }
+                int amountTaken = Math.min(need, amount - taken);
+                result.found[index] += amountTaken;
+                taken += amountTaken;
+                if (amountTaken == need) {
+                    outstanding[0]--;
+                }
+                if (taken >= amount) {
+                    break;
+                }
+            }
+            if (taken > 0) {
+                result.allocate(slot, item, taken);
+            }
+            return outstanding[0] > 0;
+        });
+        return result;
+    }
+
+    /**
+     * @return the item to report as missing for the requirement at {@code index}
+     */
+    @Nullable
+    A baseItem(int index) {
+        Requirement<A> requirement = requirements.get(index);
+        return requirement.item != null ? requirement.item : itemOps.create(requirement.key);
+    }
+
+    public static final class Builder<A> {
+        private final ItemStackOps<A> itemOps;
+        private final List<Requirement<A>> requirements = new ArrayList<>();
+
+        private Builder(ItemStackOps<A> itemOps) {
+            this.itemOps = itemOps;
+        }
+
+        /**
+         * Requires the amount of {@code item} of items similar to it.
+         */
+        public Builder<A> item(A item) {
+            return item(item, itemOps.getAmount(item));
+        }
+
+        /**
+         * Requires {@code amount} items similar to {@code item}.
+         */
+        public Builder<A> item(A item, int amount) {
+            requirements.add(new Requirement<>(itemOps.getKeyFrom(item), item, amount));
+            return this;
+        }
+
+        /**
+         * Requires {@code amount} items with the given key.
+         */
+        public Builder<A> key(ItemKey key, int amount) {
+            requirements.add(new Requirement<>(key, null, amount));
+            return this;
+        }
+
+        public ItemRequirements<A> build() {
+            return new ItemRequirements<>(itemOps, List.copyOf(requirements));
+        }
+    }
+
+    /**
+     * Found and missing amounts per requirement, in the order the requirements were added,
+     * together with the slots the found amounts were allocated from.
+     */
+    public static final class Result<A> {
+        private final int[] required;
+        private final int[] found;
+        private int[] slots = new int[8];
+        private Object[] items = new Object[8];
+        private int[] taken = new int[8];
+        private int allocations = 0;
+
+        private Result(List<Requirement<A>> requirements) {
+            this.required = new int[requirements.size()];
+            this.found = new int[requirements.size()];
+            for (int i = 0; i < required.length; i++) {
+                required[i] = Math.max(requirements.get(i).amount, 0);
+            }
+        }
+
+        public int size() {
+            return required.length;
+        }
+
+        public int getRequired(int index) {
+            return required[index];
+        }
+
+        public int getFound(int index) {
+            return found[index];
+        }
+
+        public int getMissing(int index) {
+            return required[index] - found[index];
+        }
+
+        public boolean isSatisfied(int index) {
+            return found[index] >= required[index];
+        }
+
+        public boolean isSatisfied() {
+            return countOutstanding() == 0;
+        }
+
+        int getAllocations() {
+            return allocations;
+        }
+
+        int getSlot(int allocation) {
+            return slots[allocation];
+        }
+
+        @SuppressWarnings("unchecked")
+        A getItem(int allocation) {
+            return (A) items[allocation];
+        }
+
+        int getTaken(int allocation) {
+            return taken[allocation];
+        }
+
+        private int countOutstanding() {
+            int count = 0;
+            for (int i = 0; i < required.length; i++) {
+                if (found[i] < required[i]) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private void allocate(int slot, A item, int amount) {
+            if (allocations == slots.length) {
+                int newLength = allocations * 2;
+                slots = Arrays.copyOf(slots, newLength);
+                items = Arrays.copyOf(items, newLength);
+                taken = Arrays.copyOf(taken, newLength);
+            }
+            slots[allocations] = slot;
+            items[allocations] = item;
+            taken[allocations] = amount;
+            allocations++;
+        }
+    }
+
+    private static final class Requirement<A> {
+        private final ItemKey key;
+        private final @Nullable A item;
+        private final int amount;
+
+        private Requirement(ItemKey key, @Nullable A item, int amount) {
+            this.key = key;
+            this.item = item;
+            this.amount = amount;
+        }
+    }
+}
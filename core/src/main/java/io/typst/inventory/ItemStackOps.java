@@ -2,6 +2,7 @@ package io.typst.inventory;
 
 import org.jetbrains.annotations.Nullable;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public interface ItemStackOps<A> {
@@ -9,32 +10,45 @@ public interface ItemStackOps<A> {
 
     ItemKey getKeyFrom(A item);
 
+    /**
+     * Sums the amounts of the given items by {@link ItemKey}, copying one item per key.
+     */
     default Map<ItemKey, A> getHeaderMapFrom(Iterable<A> iterable) {
-        Map<ItemKey, A> map = new HashMap<>();
-        for (A item : iterable) {
-            ItemKey header = getKeyFrom(item);
-            A theItem = map.get(header);
-            A newItem = theItem != null ? theItem : copy(item);
-            int theAmount = theItem != null ? getAmount(theItem) : 0;
-            setAmount(newItem, getAmount(newItem) + theAmount);
-            map.put(header, newItem);
-        }
-        return map;
+        return ItemGroups.byKey(this, iterable);
     }
 
+    /**
+     * Merges similar items into one item each, in order of first appearance.
+     *
+     * @see #collapseItems(Collection, boolean)
+     */
     default List<A> collapseItems(Collection<A> items) {
-        Map<A, Integer> map = new HashMap<>(items.size());
-        for (A item : items) {
-            A newItem = copy(item);
-            setAmount(newItem, 1);
-            map.put(newItem, map.getOrDefault(newItem, 0) + getAmount(item));
+        return collapseItems(items, false);
+    }
+
+    /**
+     * Merges similar items into one item each, in order of first appearance. Items are bucketed
+     * by {@link #similarityHash(Object)} and compared with {@link #isSimilar(Object, Object)}
+     * only within a bucket; amounts are summed as longs and clamped to {@link Integer#MAX_VALUE},
+     * and each group is copied once.
+     *
+     * @param items    the items to merge
+     * @param parallel whether to group on the common fork-join pool, for very large collections;
+     *                 requires {@link #similarityHash(Object)}, {@link #isSimilar(Object, Object)}
+     *                 and {@link #getAmount(Object)} to be safe to call concurrently
+     * @return the merged items
+     */
+    default List<A> collapseItems(Collection<A> items, boolean parallel) {
+        if (parallel) {
+            return items.parallelStream()
+                    .collect(() -> new ItemGroups<>(this), ItemGroups::add, ItemGroups::addAll)
+                    .toItems();
         }
-        List<A> ret = new ArrayList<>(map.size());
-        for (Map.Entry<A, Integer> pair : map.entrySet()) {
-            setAmount(pair.getKey(), pair.getValue());
-            ret.add(pair.getKey());
+        ItemGroups<A> groups = new ItemGroups<>(this);
+        for (A item : items) {
+            groups.add(item);
         }
-        return ret;
+        return groups.toItems();
     }
 
     int getAmount(A item);
@@ -51,4 +65,41 @@ public interface ItemStackOps<A> {
     A empty();
 
     boolean isSimilar(A a, A b);
+
+    /**
+     * A cheap fingerprint for grouping similar items: {@link #isSimilar(Object, Object)} items
+     * must have the same hash, while items with the same hash may still differ. The default
+     * hashes {@link #getKeyFrom(Object)}, relying on similar items sharing a key.
+     */
+    default int similarityHash(A item) {
+        return getKeyFrom(item).hashCode();
+    }
+
+    /**
+     * Writes whatever {@link InventoryCodec} needs, beyond the item's {@link ItemKey} and amount,
+     * to restore the item with {@link #readPayload(ItemKey, int, ByteBuffer)}. Writes nothing by default.
+     *
+     * @param item the non-empty item being encoded
+     * @param out  the buffer to write to
+     */
+    default void writePayload(A item, ByteBuffer out) {
+    }
+
+    /**
+     * Restores an item encoded by {@link InventoryCodec}. The default creates it from the key
+     * with {@link #create(ItemKey)} and ignores the payload.
+     *
+     * @param key     the item key
+     * @param amount  the item amount
+     * @param payload exactly the bytes written by {@link #writePayload(Object, ByteBuffer)}
+     * @return the item, or {@link #empty()} if it cannot be created
+     */
+    default A readPayload(ItemKey key, int amount, ByteBuffer payload) {
+        A item = create(key);
+        if (item == null) {
+            return empty();
+        }
+        setAmount(item, amount);
+        return item;
+    }
 }
@@ -0,0 +1,131 @@
+package io.typst.inventory;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ItemStackOps} that memoizes {@link #getKeyFrom(Object)} by item identity and
+ * delegates everything else.
+ *
+ * <p>A key is computed once per item instance, so the cache is only valid while the
+ * items it has seen are not changed in a way that affects their key (amount changes are
+ * fine). It only hits when the same instances are read again, as from an
+ * {@link InventorySnapshotView#toImmutable()} snapshot; adapters returning a new item per
+ * read, such as a live Bukkit inventory, never hit. It is meant to live as long as one
+ * snapshot, see {@link InventorySnapshotView#withKeyCache()}, and holds at most
+ * {@code maxSize} keys, forgetting all of them when full. Not thread-safe.</p>
+ */
+public class KeyCachingItemStackOps<A> implements ItemStackOps<A> {
+    private static final int DEFAULT_MAX_SIZE = 4096;
+
+    private final ItemStackOps<A> delegate;
+    private final int maxSize;
+    private final Map<A, ItemKey> keys = new IdentityHashMap<>();
+
+    public KeyCachingItemStackOps(ItemStackOps<A> delegate) {
+        this(delegate, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize the number of keys kept before the cache is cleared
+     */
+    public KeyCachingItemStackOps(ItemStackOps<A> delegate, int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Max size must be positive: " + maxSize);
+        }
+        this.delegate = delegate;
+        this.maxSize = maxSize;
+    }
+
+    public ItemStackOps<A> getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public boolean isEmpty(@Nullable A item) {
+        return delegate.isEmpty(item);
+    }
+
+    @Override
+    public ItemKey getKeyFrom(A item) {
+        ItemKey key = keys.get(item);
+        if (key == null) {
+            key = delegate.getKeyFrom(item);
+            if (keys.size() >= maxSize) {
+                keys.clear();
+            }
+            keys.put(item, key);
+        }
+        return key;
+    }
+
+    @Override
+    public Map<ItemKey, A> getHeaderMapFrom(Iterable<A> iterable) {
+        return delegate.getHeaderMapFrom(iterable);
+    }
+
+    @Override
+    public List<A> collapseItems(Collection<A> items) {
+        return delegate.collapseItems(items);
+    }
+
+    @Override
+    public List<A> collapseItems(Collection<A> items, boolean parallel) {
+        return delegate.collapseItems(items, parallel);
+    }
+
+    @Override
+    public int getAmount(A item) {
+        return delegate.getAmount(item);
+    }
+
+    @Override
+    public void setAmount(A item, int amount) {
+        delegate.setAmount(item, amount);
+    }
+
+    @Override
+    public int getMaxStackSize(A item) {
+        return delegate.getMaxStackSize(item);
+    }
+
+    @Override
+    public A copy(A item) {
+        return delegate.copy(item);
+    }
+
+    @Override
+    public @Nullable A create(ItemKey key) {
+        return delegate.create(key);
+    }
+
+    @Override
+    public A empty() {
+        return delegate.empty();
+    }
+
+    @Override
+    public boolean isSimilar(A a, A b) {
+        return delegate.isSimilar(a, b);
+    }
+
+    @Override
+    public int similarityHash(A item) {
+        return delegate.similarityHash(item);
+    }
+
+    @Override
+    public void writePayload(A item, ByteBuffer out) {
+        delegate.writePayload(item, out);
+    }
+
+    @Override
+    public A readPayload(ItemKey key, int amount, ByteBuffer payload) {
+        return delegate.readPayload(key, amount, payload);
+    }
+}
@@ -1,5 +1,9 @@
 package io.typst.inventory;
 
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
 import lombok.Value;
 import lombok.With;
 import org.jetbrains.annotations.NotNull;
@@ -8,6 +12,7 @@ import java.util.AbstractMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.IntStream;
 
 
@@ -16,6 +21,10 @@ import java.util.stream.IntStream;
 public class ListInventoryAdapter<A> implements InventoryAdapter<A> {
     List<A> items;
     A emptyItem;
+    @Getter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    AtomicLong modCount = new AtomicLong();
 
     public ListInventoryAdapter(List<A> items, A emptyItem) {
         this.items = items;
@@ -38,6 +47,26 @@ public class ListInventoryAdapter<A> implements InventoryAdapter<A> {
             }
         }
         items.set(slot, item);
+        modCount.incrementAndGet();
+    }
+
+    /**
+     * A counter of writes made through this adapter; writes to the backing {@link List}
+     * itself are not seen.
+     */
+    @Override
+    public long getVersion() {
+        return modCount.get();
+    }
+
+    @Override
+    public boolean forEachSlot(SlotVisitor<A> visitor) {
+        for (int slot = 0; slot < items.size(); slot++) {
+            if (!visitor.visit(slot, items.get(slot))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
@@ -1,17 +1,26 @@
 package io.typst.inventory;
 
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
 import lombok.Value;
 import lombok.With;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Value
 @With
 public class MapInventoryAdapter<A> implements InventoryAdapter<A> {
     Map<Integer, A> itemMap;
     A emptyItem;
+    @Getter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    AtomicLong modCount = new AtomicLong();
 
     public MapInventoryAdapter(Map<Integer, A> itemMap, A emptyItem) {
         this.itemMap = itemMap;
@@ -27,6 +36,26 @@ public class MapInventoryAdapter<A> implements InventoryAdapter<A> {
     @Override
     public void set(int slot, A item) {
         itemMap.put(slot, item);
+        modCount.incrementAndGet();
+    }
+
+    /**
+     * A counter of writes made through this adapter; writes to the backing {@link Map}
+     * itself are not seen.
+     */
+    @Override
+    public long getVersion() {
+        return modCount.get();
+    }
+
+    @Override
+    public boolean forEachSlot(SlotVisitor<A> visitor) {
+        for (Map.Entry<Integer, A> pair : itemMap.entrySet()) {
+            if (!visitor.visit(pair.getKey(), pair.getValue())) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
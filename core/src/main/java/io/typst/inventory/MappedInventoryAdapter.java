@@ -0,0 +1,281 @@
+package io.typst.inventory;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Fixed-size adapter over the dense slot range {@code [0, size)} stored in a memory-mapped file,
+ * so that large offline inventories are paged in on demand instead of loaded whole.
+ *
+ * <p>The file holds a header, one fixed-size record per slot (payload offset, capacity and
+ * length, amount and {@link ItemKey} hash) and a payload area with each item's key and
+ * {@link ItemStackOps#writePayload(Object, ByteBuffer)} bytes. A write rewrites only the
+ * record of its slot, reusing the slot's payload space when the new item fits and appending
+ * otherwise. {@link InventorySnapshotView#countItems(ItemKey)} and
+ * {@link InventorySnapshotView#findSlots(ItemKey, int)} read the record table and only the
+ * payloads whose key hash matches.</p>
+ *
+ * <p>Items are decoded on every {@link #get(int)}. Changes reach the file through the page
+ * cache immediately; {@link #force()} or {@link #close()} flush them to the device. Space
+ * left behind by items that outgrew their slot is not reclaimed. Not thread-safe.</p>
+ */
+public class MappedInventoryAdapter<A> implements InventoryAdapter<A>, Closeable {
+    private static final int MAGIC = 0x54494E56; // TINV
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 24;
+    private static final int SLOTS_OFFSET = 8;
+    private static final int PAYLOAD_END_OFFSET = 16;
+    private static final int MOD_COUNT_OFFSET = 24;
+    private static final ByteBuffer NO_PAYLOAD = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private final FileChannel channel;
+    private final ItemStackOps<A> itemOps;
+    private final int size;
+    private MappedByteBuffer buffer;
+    private ByteBuffer scratch = ByteBuffer.allocate(256);
+
+    private MappedInventoryAdapter(FileChannel channel, ItemStackOps<A> itemOps, int size, MappedByteBuffer buffer) {
+        this.channel = channel;
+        this.itemOps = itemOps;
+        this.size = size;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Opens the inventory file at {@code path}, creating it with {@code size} empty slots
+     * if it does not exist or is empty.
+     *
+     * @throws IllegalArgumentException if an existing file is not an inventory file of {@code size} slots
+     */
+    public static <A> MappedInventoryAdapter<A> open(Path path, int size, ItemStackOps<A> itemOps) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long tableEnd = HEADER_SIZE + (long) size * RECORD_SIZE;
+            if (channel.size() == 0) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, tableEnd);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, FORMAT_VERSION);
+                buffer.putInt(SLOTS_OFFSET, size);
+                buffer.putLong(PAYLOAD_END_OFFSET, tableEnd);
+                buffer.putLong(MOD_COUNT_OFFSET, 0);
+                return new MappedInventoryAdapter<>(channel, itemOps, size, buffer);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (channel.size() < tableEnd || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Not an inventory file: " + path);
+            }
+            if (buffer.getInt(SLOTS_OFFSET) != size) {
+                throw new IllegalArgumentException("Expected " + size + " slots but " + path + " has " + buffer.getInt(SLOTS_OFFSET));
+            }
+            return new MappedInventoryAdapter<>(channel, itemOps, size, buffer);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public A get(int slot) {
+        if (slot < 0 || slot >= size) {
+            return itemOps.empty();
+        }
+        int record = record(slot);
+        int length = buffer.getInt(record + 12);
+        if (length == 0) {
+            return itemOps.empty();
+        }
+        ByteBuffer payload = payload(record, length);
+        ItemKey key = new ItemKey(readString(payload), readString(payload));
+        int amount = buffer.getInt(record + 16);
+        return itemOps.readPayload(key, amount, payload.hasRemaining() ? payload.slice() : NO_PAYLOAD);
+    }
+
+    @Override
+    public void set(int slot, A item) {
+        if (slot < 0 || slot >= size) {
+            throw new IndexOutOfBoundsException("Slot " + slot + " out of bounds for size " + size);
+        }
+        int record = record(slot);
+        if (itemOps.isEmpty(item)) {
+            buffer.putInt(record + 12, 0);
+            buffer.putInt(record + 16, 0);
+            buffer.putInt(record + 20, 0);
+        } else {
+            ItemKey key = itemOps.getKeyFrom(item);
+            ByteBuffer encoded = encode(key, item);
+            int length = encoded.remaining();
+            long offset = buffer.getLong(record);
+            if (length > buffer.getInt(record + 8)) {
+                offset = allocate(length);
+                buffer.putLong(record, offset);
+                buffer.putInt(record + 8, length);
+            }
+            ByteBuffer target = buffer.duplicate();
+            target.position((int) offset);
+            target.put(encoded);
+            buffer.putInt(record + 12, length);
+            buffer.putInt(record + 16, itemOps.getAmount(item));
+            buffer.putInt(record + 20, key.hashCode());
+        }
+        buffer.putLong(MOD_COUNT_OFFSET, buffer.getLong(MOD_COUNT_OFFSET) + 1);
+    }
+
+    /**
+     * A write counter persisted in the file header.
+     */
+    @Override
+    public long getVersion() {
+        return buffer.getLong(MOD_COUNT_OFFSET);
+    }
+
+    /**
+     * Finds slots contributing up to {@code amount} items with the given key, reading only the
+     * record table and the keys of slots whose key hash matches.
+     */
+    @Override
+    public Map<Integer, Integer> findSlots(ItemKey key, int amount) {
+        Map<Integer, Integer> slots = new LinkedHashMap<>();
+        int hash = key.hashCode();
+        for (int slot = 0; slot < size && amount > 0; slot++) {
+            int record = record(slot);
+            int length = buffer.getInt(record + 12);
+            if (length == 0 || buffer.getInt(record + 20) != hash) {
+                continue;
+            }
+            ByteBuffer payload = payload(record, length);
+            if (!readString(payload).equals(key.getId()) || !readString(payload).equals(key.getName())) {
+                continue;
+            }
+            int taken = Math.min(amount, buffer.getInt(record + 16));
+            if (taken >= 1) {
+                slots.put(slot, taken);
+                amount -= taken;
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * @return the slots holding a non-empty item, read from the record table only
+     */
+    @Override
+    public BitSet nonEmptySlots() {
+        BitSet slots = new BitSet(size);
+        for (int slot = 0; slot < size; slot++) {
+            if (buffer.getInt(record(slot) + 12) != 0) {
+                slots.set(slot);
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Flushes pending changes to the storage device.
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    @Override
+    public boolean forEachSlot(SlotVisitor<A> visitor) {
+        for (int slot = 0; slot < size; slot++) {
+            if (!visitor.visit(slot, get(slot))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public @NotNull Iterator<Map.Entry<Integer, A>> iterator() {
+        return IntStream.range(0, size)
+                .mapToObj(slot -> (Map.Entry<Integer, A>) new AbstractMap.SimpleEntry<>(slot, get(slot)))
+                .iterator();
+    }
+
+    private static int record(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private ByteBuffer payload(int record, int length) {
+        ByteBuffer payload = buffer.duplicate();
+        int offset = (int) buffer.getLong(record);
+        payload.position(offset).limit(offset + length);
+        return payload.slice();
+    }
+
+    private ByteBuffer encode(ItemKey key, A item) {
+        while (true) {
+            scratch.clear();
+            try {
+                writeString(scratch, key.getId());
+                writeString(scratch, key.getName());
+                itemOps.writePayload(item, scratch);
+                scratch.flip();
+                return scratch;
+            } catch (BufferOverflowException ex) {
+                scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+            }
+        }
+    }
+
+    /**
+     * Reserves {@code length} bytes at the end of the payload area, growing and remapping the file if needed.
+     */
+    private long allocate(int length) {
+        long offset = buffer.getLong(PAYLOAD_END_OFFSET);
+        long end = offset + length;
+        if (end > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Inventory file exceeds 2 GiB");
+        }
+        if (end > buffer.capacity()) {
+            long newSize = Math.min(Math.max(end, (long) buffer.capacity() * 2), Integer.MAX_VALUE);
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        buffer.putLong(PAYLOAD_END_OFFSET, end);
+        return offset;
+    }
+
+    private static void writeString(ByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        InventoryCodec.writeVarint(out, bytes.length);
+        out.put(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[InventoryCodec.readVarint(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
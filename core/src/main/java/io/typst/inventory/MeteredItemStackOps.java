@@ -0,0 +1,111 @@
+package io.typst.inventory;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ItemStackOps} that counts {@link #copy(Object)} calls for {@link InventoryMetrics} and
+ * delegates everything. Scans over an inventory add their visited slots through
+ * {@link InventoryEvents}. Lives as long as one measured operation. Not thread-safe.
+ */
+final class MeteredItemStackOps<A> implements ItemStackOps<A> {
+    private final ItemStackOps<A> delegate;
+    private long slotsScanned = 0;
+    private long copies = 0;
+
+    MeteredItemStackOps(ItemStackOps<A> delegate) {
+        this.delegate = delegate;
+    }
+
+    long getSlotsScanned() {
+        return slotsScanned;
+    }
+
+    void addSlotsScanned(int slots) {
+        slotsScanned += slots;
+    }
+
+    long getCopies() {
+        return copies;
+    }
+
+    @Override
+    public boolean isEmpty(@Nullable A item) {
+        return delegate.isEmpty(item);
+    }
+
+    @Override
+    public ItemKey getKeyFrom(A item) {
+        return delegate.getKeyFrom(item);
+    }
+
+    @Override
+    public Map<ItemKey, A> getHeaderMapFrom(Iterable<A> iterable) {
+        return delegate.getHeaderMapFrom(iterable);
+    }
+
+    @Override
+    public List<A> collapseItems(Collection<A> items) {
+        return delegate.collapseItems(items);
+    }
+
+    @Override
+    public List<A> collapseItems(Collection<A> items, boolean parallel) {
+        return delegate.collapseItems(items, parallel);
+    }
+
+    @Override
+    public int getAmount(A item) {
+        return delegate.getAmount(item);
+    }
+
+    @Override
+    public void setAmount(A item, int amount) {
+        delegate.setAmount(item, amount);
+    }
+
+    @Override
+    public int getMaxStackSize(A item) {
+        return delegate.getMaxStackSize(item);
+    }
+
+    @Override
+    public A copy(A item) {
+        copies++;
+        return delegate.copy(item);
+    }
+
+    @Override
+    public @Nullable A create(ItemKey key) {
+        return delegate.create(key);
+    }
+
+    @Override
+    public A empty() {
+        return delegate.empty();
+    }
+
+    @Override
+    public boolean isSimilar(A a, A b) {
+        return delegate.isSimilar(a, b);
+    }
+
+    @Override
+    public int similarityHash(A item) {
+        return delegate.similarityHash(item);
+    }
+
+    @Override
+    public void writePayload(A item, ByteBuffer out) {
+        delegate.writePayload(item, out);
+    }
+
+    @Override
+    public A readPayload(ItemKey key, int amount, ByteBuffer payload) {
+        return delegate.readPayload(key, amount, payload);
+    }
+}
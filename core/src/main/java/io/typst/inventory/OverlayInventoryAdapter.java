@@ -0,0 +1,101 @@
+package io.typst.inventory;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Copy-on-write view over another {@link InventoryAdapter}.
+ *
+ * <p>Reads go through to the base adapter unless the slot was written through this
+ * overlay; writes are recorded in a small per-slot delta and only reach the base adapter
+ * on {@link #commit()}. The overlay exposes the same slots as the base adapter.</p>
+ *
+ * <p>Used by {@link InventoryMutator#transaction(java.util.function.Predicate)} to chain
+ * several operations without copying the whole inventory.</p>
+ */
+public class OverlayInventoryAdapter<A> implements InventoryAdapter<A> {
+    private final InventoryAdapter<A> base;
+    private final Map<Integer, A> delta = new HashMap<>();
+
+    public OverlayInventoryAdapter(InventoryAdapter<A> base) {
+        this.base = base;
+    }
+
+    public InventoryAdapter<A> getBase() {
+        return base;
+    }
+
+    /**
+     * @return the pending writes by slot, not yet applied to the base adapter
+     */
+    public Map<Integer, A> getDelta() {
+        return Collections.unmodifiableMap(delta);
+    }
+
+    @Override
+    public A get(int slot) {
+        return delta.containsKey(slot)
+                ? delta.get(slot)
+                : base.get(slot);
+    }
+
+    @Override
+    public void set(int slot, A item) {
+        delta.put(slot, item);
+    }
+
+    @Override
+    public boolean isLive() {
+        return base.isLive();
+    }
+
+    /**
+     * Writes the pending delta to the base adapter and clears it.
+     */
+    public void commit() {
+        base.setItems(delta);
+        delta.clear();
+    }
+
+    /**
+     * Drops the pending delta without touching the base adapter.
+     */
+    public void discard() {
+        delta.clear();
+    }
+
+    @Override
+    public boolean forEachSlot(SlotVisitor<A> visitor) {
+        if (delta.isEmpty()) {
+            return base.forEachSlot(visitor);
+        }
+        return base.forEachSlot((slot, item) -> visitor.visit(slot, overlaid(slot, item)));
+    }
+
+    @Override
+    public @NotNull Iterator<Map.Entry<Integer, A>> iterator() {
+        Iterator<Map.Entry<Integer, A>> iterator = base.iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Map.Entry<Integer, A> next() {
+                Map.Entry<Integer, A> pair = iterator.next();
+                int slot = pair.getKey();
+                return new AbstractMap.SimpleImmutableEntry<>(slot, overlaid(slot, pair.getValue()));
+            }
+        };
+    }
+
+    private A overlaid(int slot, A baseItem) {
+        return delta.getOrDefault(slot, baseItem);
+    }
+}
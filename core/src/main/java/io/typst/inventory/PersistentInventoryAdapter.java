@@ -0,0 +1,186 @@
+package io.typst.inventory;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable adapter over the dense slot range {@code [0, size)} stored as a 32-way trie,
+ * so that {@link #withItems(Map)} copies only the paths to the changed slots and shares
+ * everything else with the original.
+ *
+ * <p>Used by {@link InventorySnapshotView#toImmutable()} and {@link InventorySnapshotView#updated(Map)}
+ * for dense slots: a chain of small updates costs O(changed slots) per step, and every older
+ * snapshot stays valid and cheap to keep, e.g. for undo or auditing. {@link #set(int, Object)}
+ * is rejected like on {@link Map#copyOf(Map)}.</p>
+ */
+public final class PersistentInventoryAdapter<A> implements InventoryAdapter<A> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private final Object[] root;
+    private final int shift;
+    private final int size;
+    private final A emptyItem;
+
+    private PersistentInventoryAdapter(Object[] root, int shift, int size, A emptyItem) {
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+        this.emptyItem = emptyItem;
+    }
+
+    /**
+     * @param items     the items of slots {@code [0, items.length)}, {@code null} meaning empty
+     * @param emptyItem the item returned for empty slots
+     */
+    public static <A> PersistentInventoryAdapter<A> of(Object[] items, A emptyItem) {
+        int shift = 0;
+        while (((long) WIDTH << shift) < items.length) {
+            shift += BITS;
+        }
+        return new PersistentInventoryAdapter<>(build(items, 0, shift), shift, items.length, emptyItem);
+    }
+
+    private static Object[] build(Object[] items, int from, int shift) {
+        Object[] node = new Object[WIDTH];
+        if (shift == 0) {
+            System.arraycopy(items, from, node, 0, Math.min(WIDTH, items.length - from));
+            return node;
+        }
+        for (int i = 0; i < WIDTH; i++) {
+            int start = from + (i << shift);
+            if (start >= items.length) {
+                break;
+            }
+            node[i] = build(items, start, shift - BITS);
+        }
+        return node;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public A get(int slot) {
+        if (slot < 0 || slot >= size) {
+            return emptyItem;
+        }
+        A item = (A) leafOf(slot)[slot & MASK];
+        return item != null ? item : emptyItem;
+    }
+
+    @Override
+    public void set(int slot, A item) {
+        throw new UnsupportedOperationException("Read-only inventory");
+    }
+
+    /**
+     * Returns a new adapter with the given slots replaced, sharing all untouched nodes with this one.
+     *
+     * @param items items by slot, all within {@code [0, size)}
+     * @throws IndexOutOfBoundsException if a slot is out of range
+     */
+    public PersistentInventoryAdapter<A> withItems(Map<Integer, A> items) {
+        if (items.isEmpty()) {
+            return this;
+        }
+        Object[] newRoot = root.clone();
+        Set<Object[]> copied = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Map.Entry<Integer, A> pair : items.entrySet()) {
+            int slot = pair.getKey();
+            if (slot < 0 || slot >= size) {
+                throw new IndexOutOfBoundsException("Slot " + slot + " out of bounds for size " + size);
+            }
+            Object[] node = newRoot;
+            for (int level = shift; level > 0; level -= BITS) {
+                int index = (slot >>> level) & MASK;
+                Object[] child = (Object[]) node[index];
+                if (!copied.contains(child)) {
+                    child = child.clone();
+                    copied.add(child);
+                    node[index] = child;
+                }
+                node = child;
+            }
+            node[slot & MASK] = pair.getValue();
+        }
+        return new PersistentInventoryAdapter<>(newRoot, shift, size, emptyItem);
+    }
+
+    /**
+     * @return {@link #withItems(Map)} if this adapter {@link #covers(Map) covers} the slots,
+     * otherwise {@code null}
+     */
+    @Override
+    public @Nullable PersistentInventoryAdapter<A> updated(Map<Integer, A> items) {
+        return covers(items) ? withItems(items) : null;
+    }
+
+    /**
+     * @return whether every slot of {@code items} is within {@code [0, size)}
+     */
+    public boolean covers(Map<Integer, ?> items) {
+        for (Integer slot : items.keySet()) {
+            if (slot < 0 || slot >= size) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean forEachSlot(SlotVisitor<A> visitor) {
+        for (int start = 0; start < size; start += WIDTH) {
+            Object[] leaf = leafOf(start);
+            int end = Math.min(WIDTH, size - start);
+            for (int i = 0; i < end; i++) {
+                A item = (A) leaf[i];
+                if (!visitor.visit(start + i, item != null ? item : emptyItem)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public @NotNull Iterator<Map.Entry<Integer, A>> iterator() {
+        return new Iterator<>() {
+            private int slot = 0;
+
+            @Override
+            public boolean hasNext() {
+                return slot < size;
+            }
+
+            @Override
+            public Map.Entry<Integer, A> next() {
+                if (slot >= size) {
+                    throw new NoSuchElementException();
+                }
+                int current = slot++;
+                return new AbstractMap.SimpleImmutableEntry<>(current, get(current));
+            }
+        };
+    }
+
+    private Object[] leafOf(int slot) {
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(slot >>> level) & MASK];
+        }
+        return node;
+    }
+}
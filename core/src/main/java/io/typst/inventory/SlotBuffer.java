@@ -0,0 +1,94 @@
+package io.typst.inventory;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the slots of an {@link InventoryAdapter} in one pass and decides whether they
+ * can be stored densely in an {@link ArrayInventoryAdapter}, falling back to a map otherwise.
+ */
+final class SlotBuffer<A> implements InventoryAdapter.SlotVisitor<A> {
+    private int[] slots = new int[16];
+    private Object[] items = new Object[16];
+    private int size = 0;
+    private int minSlot = Integer.MAX_VALUE;
+    private int maxSlot = -1;
+
+    static <A> SlotBuffer<A> of(InventoryAdapter<A> inventory) {
+        SlotBuffer<A> buffer = new SlotBuffer<>();
+        inventory.forEachSlot(buffer);
+        return buffer;
+    }
+
+    @Override
+    public boolean visit(int slot, A item) {
+        if (size == slots.length) {
+            int newLength = size * 2;
+            slots = Arrays.copyOf(slots, newLength);
+            items = Arrays.copyOf(items, newLength);
+        }
+        slots[size] = slot;
+        items[size] = item;
+        size++;
+        minSlot = Math.min(minSlot, slot);
+        maxSlot = Math.max(maxSlot, slot);
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Slots are dense when they are exactly {@code [0, size)} in any order.
+     */
+    boolean isDense() {
+        return size == 0 || (minSlot == 0 && maxSlot == size - 1);
+    }
+
+    /**
+     * Returns the array length required to hold these slots overwritten by {@code modifiedItems},
+     * or {@code -1} if the union of both slot sets is not dense.
+     */
+    int denseLengthWith(Map<Integer, ?> modifiedItems) {
+        if (!isDense()) {
+            return -1;
+        }
+        int extra = 0;
+        int maxExtra = size - 1;
+        for (Integer slot : modifiedItems.keySet()) {
+            if (slot < 0) {
+                return -1;
+            }
+            if (slot >= size) {
+                extra++;
+                maxExtra = Math.max(maxExtra, slot);
+            }
+        }
+        return maxExtra + 1 == size + extra ? size + extra : -1;
+    }
+
+    Object[] toArray(int length, ItemStackOps<A> itemOps, boolean normalizeEmpty) {
+        Object[] array = new Object[length];
+        A emptyItem = itemOps.empty();
+        Arrays.fill(array, emptyItem);
+        for (int i = 0; i < size; i++) {
+            @SuppressWarnings("unchecked")
+            A item = (A) items[i];
+            array[slots[i]] = normalizeEmpty && itemOps.isEmpty(item) ? emptyItem : item;
+        }
+        return array;
+    }
+
+    Map<Integer, A> toMap(ItemStackOps<A> itemOps, boolean normalizeEmpty) {
+        Map<Integer, A> map = new LinkedHashMap<>();
+        A emptyItem = itemOps.empty();
+        for (int i = 0; i < size; i++) {
+            @SuppressWarnings("unchecked")
+            A item = (A) items[i];
+            map.put(slots[i], normalizeEmpty && itemOps.isEmpty(item) ? emptyItem : item);
+        }
+        return map;
+    }
+}
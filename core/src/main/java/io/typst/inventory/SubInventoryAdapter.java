@@ -37,6 +37,45 @@ public class SubInventoryAdapter<A> implements InventoryAdapter<A> {
         delegate.set(slot, item);
     }
 
+    @Override
+    public void setItems(Map<Integer, A> items) {
+        Map<Integer, A> owned = new HashMap<>(items.size());
+        items.forEach((slot, item) -> {
+            if (slots.contains(slot)) {
+                owned.put(slot, item);
+            }
+        });
+        delegate.setItems(owned);
+    }
+
+    /**
+     * The version of the delegate, which also changes when slots outside this view are written.
+     */
+    @Override
+    public long getVersion() {
+        return delegate.getVersion();
+    }
+
+    @Override
+    public boolean isUnchangedSince(long version) {
+        return delegate.isUnchangedSince(version);
+    }
+
+    @Override
+    public boolean isLive() {
+        return delegate.isLive();
+    }
+
+    @Override
+    public boolean forEachSlot(SlotVisitor<A> visitor) {
+        for (int slot : slots) {
+            if (!visitor.visit(slot, delegate.get(slot))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public @NotNull Iterator<Map.Entry<Integer, A>> iterator() {
         return slots.stream()
@@ -0,0 +1,107 @@
+package io.typst.inventory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentInventoryAdapterTest {
+    private final MockItemOps ops = new MockItemOps();
+
+    private MockItem mi(String id, int amount) {
+        return new MockItem(id, amount, 64);
+    }
+
+    @Test
+    void compareAndSetRejectsReplacedSlots() {
+        ConcurrentInventoryAdapter<MockItem> adapter = new ConcurrentInventoryAdapter<>(4, ops.empty(), 2);
+        adapter.set(1, mi("apple", 3));
+        ArrayInventoryAdapter<MockItem> snapshot = adapter.snapshot();
+        long version = adapter.getVersion();
+
+        adapter.set(1, mi("apple", 3));
+        assertNotEquals(version, adapter.getVersion());
+        assertFalse(adapter.compareAndSetItems(snapshot, Map.of(1, ops.empty(), 2, mi("dirt", 1))));
+        assertTrue(ops.isEmpty(adapter.get(2)));
+
+        assertTrue(adapter.compareAndSetItems(adapter.snapshot(), Map.of(1, ops.empty(), 2, mi("dirt", 1))));
+        assertTrue(ops.isEmpty(adapter.get(1)));
+        assertEquals(mi("dirt", 1), adapter.get(2));
+    }
+
+    @Test
+    void commitIfUnchangedComparesTheVersionAtomically() {
+        ConcurrentInventoryAdapter<MockItem> adapter = new ConcurrentInventoryAdapter<>(4, ops.empty(), 2);
+        InventoryMutator<MockItem, Object> mutator = new InventoryMutator<>(adapter, ops, (entity, item) -> {
+        }, MockItem.defaultKey);
+        long version = mutator.version();
+        InventoryPatch<MockItem> patch = mutator.toSnapshotView().toImmutable().giveItems(mi("apple", 1));
+
+        adapter.set(3, mi("dirt", 1));
+        assertFalse(mutator.commitIfUnchanged(patch, version));
+        assertFalse(adapter.compareAndSetItems(version, Map.of(0, mi("apple", 1))));
+        assertTrue(ops.isEmpty(adapter.get(0)));
+
+        assertTrue(mutator.commitIfUnchanged(patch, mutator.version()));
+        assertEquals(mi("apple", 1), adapter.get(0));
+    }
+
+    @Test
+    void transactionsAndTransfersCommitAgainstASnapshot() {
+        ConcurrentInventoryAdapter<MockItem> adapter = new ConcurrentInventoryAdapter<>(4, ops.empty(), 2);
+        adapter.set(0, mi("apple", 3));
+        InventoryMutator<MockItem, Object> mutator = new InventoryMutator<>(adapter, ops, (entity, item) -> {
+        }, MockItem.defaultKey);
+        int[] runs = {0};
+
+        assertTrue(mutator.transaction(tx -> {
+            if (runs[0]++ == 0) {
+                // a concurrent writer replaces the slot the transaction is about to write
+                adapter.set(0, mi("apple", 3));
+            }
+            return tx.takeItems(mi("apple", 1));
+        }));
+        assertEquals(2, runs[0]);
+        assertEquals(mi("apple", 2), adapter.get(0));
+
+        InventoryMutator<MockItem, Object> target = mutator.withInventory(new ArrayInventoryAdapter<>(2, ops.empty()));
+        assertEquals(List.of(mi("apple", 2)), InventoryMutator.transfer(mutator, target, List.of(mi("apple", 5))));
+        assertTrue(ops.isEmpty(adapter.get(0)));
+        assertEquals(mi("apple", 2), target.getInventory().get(0));
+
+        assertThrows(UnsupportedOperationException.class, () -> InventoryMutator.transfer(mutator, mutator.withInventory(new ConcurrentInventoryAdapter<>(2, ops.empty())), List.of(mi("apple", 1))));
+        assertThrows(UnsupportedOperationException.class, mutator::indexed);
+    }
+
+    @Test
+    void concurrentMutatorsDoNotLoseUpdates() throws Exception {
+        ConcurrentInventoryAdapter<MockItem> adapter = new ConcurrentInventoryAdapter<>(64, ops.empty(), 8);
+        InventoryMutator<MockItem, Object> mutator = new InventoryMutator<>(adapter, ops, (entity, item) -> {
+        }, MockItem.defaultKey);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        assertTrue(mutator.giveItem(mi("apple", 2)));
+                        assertTrue(mutator.takeItems(mi("apple", 1)));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(2000, mutator.toSnapshotView().countItems(new ItemKey("apple", "apple")));
+    }
+}
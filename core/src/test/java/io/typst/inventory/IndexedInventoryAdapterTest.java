@@ -0,0 +1,142 @@
+package io.typst.inventory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexedInventoryAdapterTest {
+    private final MockItemOps ops = new MockItemOps();
+
+    private MockItem mi(String id, int amount) {
+        return new MockItem(id, amount, 64);
+    }
+
+    private ItemKey key(String id) {
+        return new ItemKey(id, id);
+    }
+
+    @Test
+    void indexFollowsMutatorCommits() {
+        Map<Integer, MockItem> map = new LinkedHashMap<>();
+        map.put(0, mi("apple", 10));
+        map.put(1, ops.empty());
+        map.put(2, mi("apple", 5));
+        InventoryMutator<MockItem, Object> mutator = new InventoryMutator<>(
+                new MapInventoryAdapter<>(map, ops.empty()), ops, (entity, item) -> {
+        }, MockItem.defaultKey).indexed();
+        IndexedInventoryAdapter<MockItem> index = (IndexedInventoryAdapter<MockItem>) mutator.getInventory();
+
+        assertEquals(15, mutator.toSnapshotView().countItems(key("apple")));
+        assertTrue(mutator.takeItems(mi("apple", 12)));
+        assertTrue(mutator.giveItem(mi("dirt", 3)));
+
+        InventorySnapshotView<MockItem> view = mutator.toSnapshotView();
+        assertEquals(3, view.countItems(key("apple")));
+        assertEquals(3, view.countItems(key("dirt")));
+        assertTrue(view.hasItems(mi("apple", 3)));
+        assertFalse(view.hasItems(mi("apple", 4)));
+        assertEquals(2, index.slotsOf(key("apple")).nextSetBit(0));
+        assertEquals(0, index.slotsOf(key("dirt")).nextSetBit(0));
+    }
+
+    @Test
+    void invalidatePicksUpExternalChanges() {
+        Map<Integer, MockItem> map = new LinkedHashMap<>();
+        map.put(0, mi("apple", 10));
+        IndexedInventoryAdapter<MockItem> index = new IndexedInventoryAdapter<>(new MapInventoryAdapter<>(map, ops.empty()), ops);
+        assertEquals(10, index.count(key("apple")));
+
+        map.put(0, mi("dirt", 4));
+        assertEquals(10, index.count(key("apple")));
+
+        index.invalidate(0);
+        assertEquals(0, index.count(key("apple")));
+        assertEquals(4, index.count(key("dirt")));
+        assertTrue(index.slotsOf(key("apple")).isEmpty());
+    }
+
+    @Test
+    void findSpacesUsesPartialStacksAndEmptySlots() {
+        Map<Integer, MockItem> map = new LinkedHashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            map.put(i, mi("dirt", 64));
+        }
+        map.put(700, ops.empty());
+        map.put(1500, mi("apple", 60));
+        map.put(1800, ops.empty());
+        map.put(1900, mi("apple", 64));
+        IndexedInventoryAdapter<MockItem> index = new IndexedInventoryAdapter<>(new MapInventoryAdapter<>(map, ops.empty()), ops);
+        InventoryMutator<MockItem, Object> mutator = new InventoryMutator<>(index, ops, (entity, item) -> {
+        }, MockItem.defaultKey);
+
+        Map<Integer, Integer> spaces = mutator.toSnapshotView().findSpaces(mi("apple", 68));
+        assertEquals(List.of(700, 1500), List.copyOf(spaces.keySet()));
+        assertEquals(64, spaces.get(700));
+        assertEquals(4, spaces.get(1500));
+        assertEquals(spaces, new InventorySnapshotView<>(new MapInventoryAdapter<>(map, ops.empty()), ops, MockItem.defaultKey).findSpaces(mi("apple", 68)));
+
+        assertTrue(mutator.giveItem(mi("apple", 68)));
+        assertEquals(Map.of(1800, 2), mutator.toSnapshotView().findSpaces(key("apple"), 2));
+        assertEquals(192, index.count(key("apple")));
+    }
+
+    @Test
+    void indexedSpacesFollowTheScanOrder() {
+        Map<Integer, MockItem> map = new LinkedHashMap<>();
+        map.put(0, mi("apple", 60));
+        map.put(1, ops.empty());
+        map.put(2, mi("apple", 30));
+        map.put(3, mi("dirt", 10));
+        map.put(4, ops.empty());
+        InventorySnapshotView<MockItem> indexed = new InventorySnapshotView<>(
+                new IndexedInventoryAdapter<>(new MapInventoryAdapter<>(map, ops.empty()), ops), ops, MockItem.defaultKey);
+        InventorySnapshotView<MockItem> scanned = new InventorySnapshotView<>(
+                new MapInventoryAdapter<>(map, ops.empty()), ops, MockItem.defaultKey);
+
+        for (int amount : new int[]{3, 60, 100, 200}) {
+            assertEquals(List.copyOf(scanned.findSpaces(mi("apple", amount)).entrySet()),
+                    List.copyOf(indexed.findSpaces(mi("apple", amount)).entrySet()));
+            assertEquals(List.copyOf(scanned.findSpaces(key("apple"), amount).entrySet()),
+                    List.copyOf(indexed.findSpaces(key("apple"), amount).entrySet()));
+        }
+    }
+
+    @Test
+    void viewUsesTheLookupsOfAnyAdapter() {
+        MapInventoryAdapter<MockItem> base = new MapInventoryAdapter<>(Map.of(0, mi("apple", 1)), ops.empty());
+        InventoryAdapter<MockItem> counting = new InventoryAdapter<MockItem>() {
+            @Override
+            public MockItem get(int slot) {
+                return base.get(slot);
+            }
+
+            @Override
+            public void set(int slot, MockItem item) {
+                base.set(slot, item);
+            }
+
+            @Override
+            public boolean forEachSlot(SlotVisitor<MockItem> visitor) {
+                fail("expected the count lookup instead of a scan");
+                return false;
+            }
+
+            @Override
+            public int count(ItemKey key) {
+                return 42;
+            }
+
+            @Override
+            public Iterator<Map.Entry<Integer, MockItem>> iterator() {
+                return base.iterator();
+            }
+        };
+
+        assertEquals(42, new InventorySnapshotView<>(counting, ops, MockItem.defaultKey).countItems(key("apple")));
+    }
+}
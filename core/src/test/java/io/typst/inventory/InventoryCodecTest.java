@@ -0,0 +1,123 @@
+package io.typst.inventory;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InventoryCodecTest {
+    /**
+     * Carries the max stack size in a payload padded past the one-byte length prefix.
+     */
+    private final MockItemOps ops = new MockItemOps() {
+        @Override
+        public void writePayload(MockItem item, ByteBuffer out) {
+            out.put(new byte[200]);
+            out.putInt(item.getMaxStack());
+        }
+
+        @Override
+        public MockItem readPayload(ItemKey key, int amount, ByteBuffer payload) {
+            payload.position(200);
+            return new MockItem(key.getId(), amount, payload.getInt());
+        }
+
+        @Override
+        public ItemKey getKeyFrom(MockItem item) {
+            return new ItemKey(item.getId(), "");
+        }
+    };
+    private final InventoryCodec<MockItem> codec = new InventoryCodec<>(ops, MockItem.defaultKey);
+
+    @Test
+    void snapshotRoundTrip() {
+        Map<Integer, MockItem> map = new LinkedHashMap<>();
+        map.put(0, new MockItem("apple", 3, 16));
+        map.put(1, ops.empty());
+        map.put(2, new MockItem("apple", 300, 16));
+        map.put(3, new MockItem("dirt", 1, 64));
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+        codec.encode(new InventorySnapshotView<>(new MapInventoryAdapter<>(map, ops.empty()), ops, MockItem.defaultKey), buffer);
+        buffer.flip();
+        InventorySnapshotView<MockItem> decoded = codec.decodeSnapshot(buffer);
+
+        assertFalse(buffer.hasRemaining());
+        assertTrue(decoded.getInventory() instanceof ArrayInventoryAdapter);
+        for (int slot = 0; slot < 4; slot++) {
+            assertEquals(map.get(slot), decoded.getInventory().get(slot));
+        }
+    }
+
+    @Test
+    void snapshotWithInvalidSlotCountIsRejected() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        codec.encode(new InventorySnapshotView<>(new MapInventoryAdapter<>(Map.of(0, ops.empty()), ops.empty()), ops, MockItem.defaultKey), buffer);
+        buffer.flip();
+
+        // the slot count follows the one-byte message tag
+        for (int count : new int[]{-1, Integer.MAX_VALUE, buffer.remaining()}) {
+            ByteBuffer corrupted = buffer.duplicate();
+            corrupted.putInt(1, count);
+            assertThrows(IllegalArgumentException.class, () -> codec.decodeSnapshot(corrupted));
+        }
+    }
+
+    @Test
+    void patchRoundTrip() {
+        InventoryPatch<MockItem> patch = InventoryPatch.<MockItem>builder()
+                .modify(40, ops.empty())
+                .modify(7, new MockItem("apple", 5, 64))
+                .diff(40, new MockItem("apple", 2, 64))
+                .diff(7, new MockItem("apple", 5, 64))
+                .takeRemaining(new MockItem("dirt", 1, 64))
+                .giveLeftover(new MockItem("apple", 1, 64))
+                .build();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+
+        codec.encode(patch, buffer);
+        buffer.flip();
+        InventoryPatch<MockItem> decoded = codec.decodePatch(buffer);
+
+        assertEquals(patch.getModifiedItems(), decoded.getModifiedItems());
+        assertEquals(patch.getDiff(), decoded.getDiff());
+        assertEquals(List.of(new MockItem("dirt", 1, 64)), decoded.getFailure().getTakeRemainingItems());
+        assertEquals(List.of(new MockItem("apple", 1, 64)), decoded.getFailure().getGiveLeftoverItems());
+    }
+
+    @Test
+    void diffSurvivesAmountBasedEmptiness() {
+        // like BukkitItemStackOps, where any stack with no amount is empty
+        MockItemOps amountOps = new MockItemOps() {
+            @Override
+            public boolean isEmpty(MockItem item) {
+                return item == null || item.getAmount() <= 0;
+            }
+        };
+        Map<Integer, MockItem> before = new LinkedHashMap<>();
+        before.put(0, new MockItem("apple", 10, 64));
+        before.put(1, new MockItem("dirt", 3, 64));
+        Map<Integer, MockItem> after = new LinkedHashMap<>();
+        after.put(0, new MockItem("apple", 4, 64));
+        after.put(1, new MockItem("sand", 3, 64));
+        InventoryPatch<MockItem> diff = new InventorySnapshotView<>(new MapInventoryAdapter<>(before, amountOps.empty()), amountOps, MockItem.defaultKey)
+                .diff(new InventorySnapshotView<>(new MapInventoryAdapter<>(after, amountOps.empty()), amountOps, MockItem.defaultKey));
+        InventoryCodec<MockItem> amountCodec = new InventoryCodec<>(amountOps, MockItem.defaultKey);
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+        amountCodec.encode(diff, buffer);
+        buffer.flip();
+        InventoryPatch<MockItem> decoded = amountCodec.decodePatch(buffer);
+
+        assertEquals(List.of(
+                Map.entry(0, new MockItem("apple", 6, 64)),
+                Map.entry(1, new MockItem("dirt", 3, 64)),
+                Map.entry(1, new MockItem("sand", 3, 64))
+        ), decoded.getDiff());
+        assertEquals(diff.getModifiedItems(), decoded.getModifiedItems());
+    }
+}
@@ -0,0 +1,70 @@
+package io.typst.inventory;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InventoryEventsTest {
+    private final MockItemOps ops = new MockItemOps();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void commitsAndLargeScansAreRecorded() throws IOException {
+        Map<Integer, MockItem> inv = new LinkedHashMap<>();
+        inv.put(0, new MockItem("apple", 3, 64));
+        inv.put(1, ops.empty());
+        inv.put(2, ops.empty());
+        List<MockItem> dropped = new ArrayList<>();
+        InventoryMutator<MockItem, String> mutator = new InventoryMutator<>(
+                new MapInventoryAdapter<>(inv, ops.empty()), ops, (entity, item) -> dropped.add(item), MockItem.defaultKey
+        );
+        int threshold = InventoryEvents.getScanSlotThreshold();
+        Path file = dir.resolve("inventory.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("io.typst.inventory.Commit");
+            recording.enable("io.typst.inventory.Scan");
+            recording.start();
+            InventoryEvents.setScanSlotThreshold(3);
+            mutator.giveItemOrDrop("steve", new MockItem("bread", 130, 64));
+            InventoryEvents.setScanSlotThreshold(4);
+            mutator.takeItems(new MockItem("apple", 1, 64));
+            recording.stop();
+            recording.dump(file);
+        } finally {
+            InventoryEvents.setScanSlotThreshold(threshold);
+        }
+
+        Map<String, List<RecordedEvent>> events = RecordingFile.readAllEvents(file).stream()
+                .collect(Collectors.groupingBy(event -> event.getEventType().getName()));
+        List<RecordedEvent> commits = events.get("io.typst.inventory.Commit");
+        assertEquals(2, commits.size());
+        RecordedEvent give = commits.get(0);
+        assertEquals("giveItemOrDrop", give.getString("operation"));
+        assertFalse(give.getBoolean("success"));
+        assertEquals(2, give.getInt("slots"));
+        assertEquals(1, give.getInt("drops"));
+        assertEquals(List.of(new MockItem("bread", 2, 64)), dropped);
+        assertEquals("takeItems", commits.get(1).getString("operation"));
+        assertTrue(commits.get(1).getBoolean("success"));
+
+        List<RecordedEvent> scans = events.get("io.typst.inventory.Scan");
+        assertEquals(1, scans.size());
+        assertEquals("findSpaces", scans.get(0).getString("scan"));
+        assertEquals(3, scans.get(0).getInt("slots"));
+        assertEquals("MapInventoryAdapter", scans.get(0).getString("adapter"));
+    }
+}
@@ -0,0 +1,244 @@
+package io.typst.inventory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InventoryMutatorTest {
+    private final MockItemOps ops = new MockItemOps();
+    private final List<MockItem> dropped = new ArrayList<>();
+
+    private MockItem mi(String id, int amount) {
+        return new MockItem(id, amount, 64);
+    }
+
+    private InventoryMutator<MockItem, String> mutatorOf(Map<Integer, MockItem> map) {
+        return new InventoryMutator<>(
+                new MapInventoryAdapter<>(map, ops.empty()),
+                ops,
+                (entity, item) -> dropped.add(item),
+                MockItem.defaultKey
+        );
+    }
+
+    @Test
+    void transactionCommitsAllOperationsOnce() {
+        Map<Integer, MockItem> inv = new LinkedHashMap<>();
+        inv.put(0, mi("apple", 3));
+        inv.put(1, ops.empty());
+        InventoryMutator<MockItem, String> mutator = mutatorOf(inv);
+
+        boolean committed = mutator.transaction(tx -> {
+            assertTrue(tx.takeItems(mi("apple", 3)));
+            assertTrue(ops.isEmpty(inv.get(1)));
+            return tx.giveItem(mi("bread", 1)) && tx.giveItem(mi("bread", 1));
+        });
+
+        assertTrue(committed);
+        assertEquals(mi("bread", 2), inv.get(0));
+        assertTrue(ops.isEmpty(inv.get(1)));
+    }
+
+    @Test
+    void transactionDiscardsOnFailure() {
+        Map<Integer, MockItem> inv = new LinkedHashMap<>();
+        inv.put(0, mi("apple", 3));
+        InventoryMutator<MockItem, String> mutator = mutatorOf(inv);
+
+        boolean committed = mutator.transaction(tx -> tx.takeItems(mi("apple", 3)) && tx.giveItem(mi("bread", 65)));
+
+        assertFalse(committed);
+        assertEquals(mi("apple", 3), inv.get(0));
+    }
+
+    @Test
+    void patchesAreCommittedAsOneBatch() {
+        Map<Integer, MockItem> inv = new LinkedHashMap<>();
+        for (int i = 0; i < 4; i++) {
+            inv.put(i, mi("apple", 64));
+        }
+        List<Map<Integer, MockItem>> batches = new ArrayList<>();
+        MapInventoryAdapter<MockItem> base = new MapInventoryAdapter<>(inv, ops.empty());
+        InventoryMutator<MockItem, String> mutator = mutatorOf(inv).withInventory(new InventoryAdapter<MockItem>() {
+            @Override
+            public MockItem get(int slot) {
+                return base.get(slot);
+            }
+
+            @Override
+            public void set(int slot, MockItem item) {
+                fail("expected a batched write");
+            }
+
+            @Override
+            public void setItems(Map<Integer, MockItem> items) {
+                batches.add(items);
+                base.setItems(items);
+            }
+
+            @Override
+            public Iterator<Map.Entry<Integer, MockItem>> iterator() {
+                return base.iterator();
+            }
+        });
+
+        assertTrue(mutator.takeItems(mi("apple", 200)));
+
+        assertEquals(1, batches.size());
+        assertEquals(4, batches.get(0).size());
+        assertEquals(mi("apple", 56), inv.get(3));
+    }
+
+    @Test
+    void commitIfUnchangedRejectsStalePatches() {
+        Map<Integer, MockItem> inv = new LinkedHashMap<>();
+        inv.put(0, mi("apple", 10));
+        inv.put(1, ops.empty());
+        InventoryMutator<MockItem, String> mutator = mutatorOf(inv);
+
+        long version = mutator.version();
+        InventorySnapshotView<MockItem> snapshot = mutator.toSnapshotView().toImmutable();
+        InventoryPatch<MockItem> patch = snapshot.takeItems(mi("apple", 4));
+        assertEquals(version, mutator.version());
+        assertTrue(mutator.commitIfUnchanged(patch, version));
+        assertEquals(mi("apple", 6), inv.get(0));
+
+        long next = mutator.version();
+        assertNotEquals(version, next);
+        InventoryPatch<MockItem> stale = mutator.toSnapshotView().toImmutable().takeItems(mi("apple", 6));
+        mutator.giveItem(List.of(mi("bread", 1)));
+        assertFalse(mutator.commitIfUnchanged(stale, next));
+        assertEquals(mi("apple", 6), inv.get(0));
+    }
+
+    @Test
+    void arrayAdapterVersionCountsWrites() {
+        ArrayInventoryAdapter<MockItem> array = new ArrayInventoryAdapter<>(2, ops.empty());
+        long version = array.getVersion();
+        array.set(1, mi("apple", 1));
+        assertNotEquals(version, array.getVersion());
+    }
+
+    @Test
+    void mapAndListAdapterVersionsCountWrites() {
+        MapInventoryAdapter<MockItem> map = new MapInventoryAdapter<>(new HashMap<>(), ops.empty());
+        ListInventoryAdapter<MockItem> list = new ListInventoryAdapter<>(new ArrayList<>(), ops.empty());
+        long mapVersion = map.getVersion();
+        long listVersion = list.getVersion();
+        map.set(0, mi("apple", 1));
+        list.set(2, mi("apple", 1));
+        assertNotEquals(mapVersion, map.getVersion());
+        assertNotEquals(listVersion, list.getVersion());
+        assertFalse(map.isUnchangedSince(mapVersion));
+        assertTrue(list.isUnchangedSince(list.getVersion()));
+    }
+
+    @Test
+    void transferIsCappedBySourceAndTarget() {
+        Map<Integer, MockItem> chest = new LinkedHashMap<>();
+        chest.put(0, mi("apple", 64));
+        chest.put(1, mi("apple", 36));
+        chest.put(2, mi("dirt", 5));
+        Map<Integer, MockItem> player = new LinkedHashMap<>();
+        player.put(0, mi("apple", 60));
+        player.put(1, ops.empty());
+        InventoryMutator<MockItem, String> source = mutatorOf(chest);
+        InventoryMutator<MockItem, String> target = mutatorOf(player);
+
+        List<MockItem> moved = InventoryMutator.transfer(source, target, List.of(mi("apple", 100), mi("dirt", 10), mi("bread", 1)));
+
+        assertEquals(List.of(mi("apple", 68)), moved);
+        assertEquals(mi("apple", 64), player.get(0));
+        assertEquals(mi("apple", 64), player.get(1));
+        assertTrue(ops.isEmpty(chest.get(0)));
+        assertEquals(mi("apple", 32), chest.get(1));
+        assertEquals(mi("dirt", 5), chest.get(2));
+    }
+
+    @Test
+    void exchangeGivesIntoSlotsFreedByTheTake() {
+        Map<Integer, MockItem> inv = new LinkedHashMap<>();
+        inv.put(0, mi("apple", 64));
+        inv.put(1, mi("apple", 10));
+        inv.put(2, mi("dirt", 60));
+        InventoryMutator<MockItem, String> mutator = mutatorOf(inv);
+
+        assertTrue(mutator.exchange(List.of(mi("apple", 64)), List.of(mi("bread", 64))));
+        assertEquals(mi("bread", 64), inv.get(0));
+        assertEquals(mi("apple", 10), inv.get(1));
+
+        assertFalse(mutator.exchange(List.of(mi("apple", 10)), List.of(mi("bread", 65))));
+        assertEquals(mi("apple", 10), inv.get(1));
+
+        assertEquals(5, mutator.maxExchangeCount(List.of(mi("apple", 2)), List.of(mi("dirt", 2))));
+        assertEquals(10, mutator.maxExchangeCount(List.of(mi("apple", 1)), List.of(mi("bread", 1))));
+        assertEquals(0, mutator.maxExchangeCount(List.of(mi("apple", 1)), List.of(mi("stone", 65))));
+        assertTrue(mutator.exchange(List.of(mi("apple", 10)), List.of(mi("bread", 10))));
+        assertEquals(mi("bread", 10), inv.get(1));
+
+        InventoryPatch<MockItem> patch = mutatorOf(new LinkedHashMap<>(Map.of(0, mi("apple", 10))))
+                .toSnapshotView()
+                .exchange(List.of(mi("apple", 5)), List.of(mi("apple", 3)));
+        assertEquals(mi("apple", 8), patch.getModifiedItems().get(0));
+        assertEquals(List.of(Map.entry(0, mi("apple", 5)), Map.entry(0, mi("apple", 3))), patch.getDiff());
+    }
+
+    @Test
+    void metricsRecordRejectedCommits() {
+        Map<Integer, MockItem> inv = new LinkedHashMap<>();
+        inv.put(0, mi("apple", 10));
+        HistogramInventoryMetrics metrics = new HistogramInventoryMetrics();
+        InventoryMutator<MockItem, String> mutator = mutatorOf(inv).withMetrics(metrics);
+
+        long version = mutator.version();
+        InventoryPatch<MockItem> patch = mutator.toSnapshotView().toImmutable().takeItems(mi("apple", 4));
+        assertTrue(mutator.commitIfUnchanged(patch, version));
+        assertFalse(mutator.commitIfUnchanged(patch, version));
+
+        HistogramInventoryMetrics.Summary commits = metrics.snapshot().get("commitIfUnchanged");
+        assertEquals(2, commits.getCount());
+        assertEquals(1, commits.getSlotsWritten());
+    }
+
+    @Test
+    void metricsRecordEachOperation() {
+        Map<Integer, MockItem> inv = new LinkedHashMap<>();
+        inv.put(0, mi("apple", 3));
+        inv.put(1, ops.empty());
+        HistogramInventoryMetrics metrics = new HistogramInventoryMetrics();
+        assertSame(InventoryMetrics.NOOP, mutatorOf(inv).getMetrics());
+        InventoryMutator<MockItem, String> mutator = mutatorOf(inv).withMetrics(metrics);
+
+        assertTrue(mutator.giveItem(mi("bread", 2)));
+        assertFalse(mutator.takeItems(mi("apple", 5)));
+        assertTrue(mutator.toSnapshotView().measure(metrics, "preview", view -> view.canFit(mi("apple", 61))));
+
+        Map<String, HistogramInventoryMetrics.Summary> summaries = metrics.snapshot();
+        assertEquals(List.of("giveItem", "preview", "takeItems"), new ArrayList<>(summaries.keySet()));
+        HistogramInventoryMetrics.Summary give = summaries.get("giveItem");
+        assertEquals(1, give.getCount());
+        assertEquals(1, give.getSlotsWritten());
+        assertEquals(1, give.getCopies());
+        assertEquals(2, give.getSlotsScanned());
+        assertTrue(give.getPercentileNanos(0.99) <= give.getMaxNanos());
+        assertEquals(0, summaries.get("takeItems").getSlotsWritten());
+        assertEquals(2, summaries.get("takeItems").getSlotsScanned());
+        assertEquals(0, summaries.get("preview").getCopies());
+        assertEquals(mi("bread", 2), inv.get(1));
+
+        InventorySnapshotView<MockItem> before = mutator.toSnapshotView().toImmutable();
+        assertTrue(mutator.giveItem(mi("apple", 1)));
+        before.measure(metrics, "diff", view -> view.diff(mutator.toSnapshotView()));
+        assertEquals(2, metrics.snapshot().get("diff").getSlotsScanned());
+
+        metrics.reset();
+        assertTrue(metrics.snapshot().isEmpty());
+    }
+}
@@ -0,0 +1,115 @@
+package io.typst.inventory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InventoryPatchTest {
+    private final MockItemOps ops = new MockItemOps();
+
+    private MockItem mi(String id, int amount) {
+        return new MockItem(id, amount, 64);
+    }
+
+    @Test
+    void plusOverridesSlotsAndConcatenatesDiffAndFailures() {
+        InventoryPatch<MockItem> a = InventoryPatch.fromTakeResult(
+                Map.of(0, mi("apple", 1)), List.of(Map.entry(0, mi("apple", 2))), mi("apple", 3));
+        InventoryPatch<MockItem> b = InventoryPatch.fromTakeResult(
+                Map.of(0, mi("apple", 0)), List.of(Map.entry(0, mi("apple", 1))), null);
+
+        InventoryPatch<MockItem> sum = a.plus(b);
+
+        assertEquals(Map.of(0, mi("apple", 0)), sum.getModifiedItems());
+        assertEquals(2, sum.getDiff().size());
+        assertEquals(List.of(mi("apple", 3)), sum.getFailure().getTakeRemainingItems());
+    }
+
+    @Test
+    void builderWithOpsCoalescesSimilarDiffPerSlot() {
+        MockItem diffItem = mi("apple", 2);
+        InventoryPatch<MockItem> patch = InventoryPatch.builder(ops)
+                .modify(0, mi("apple", 5))
+                .diff(0, diffItem)
+                .diff(1, mi("dirt", 1))
+                .diff(0, mi("apple", 3))
+                .diff(0, mi("dirt", 4))
+                .giveLeftover(mi("apple", 1))
+                .build();
+
+        assertEquals(3, patch.getDiff().size());
+        assertEquals(0, patch.getDiff().get(0).getKey());
+        assertEquals(5, patch.getDiff().get(0).getValue().getAmount());
+        assertEquals(2, diffItem.getAmount());
+        assertEquals("dirt", patch.getDiff().get(2).getValue().getId());
+        assertEquals(List.of(mi("apple", 1)), patch.getFailure().getGiveLeftoverItems());
+        assertFalse(patch.isSuccess());
+    }
+
+    @Test
+    void failureBuilderKeepsEmptySingleton() {
+        assertSame(InventoryFailure.empty(), InventoryFailure.<MockItem>builder().build());
+        InventoryFailure<MockItem> failure = InventoryFailure.<MockItem>builder()
+                .takeRemaining(mi("apple", 1))
+                .build();
+        assertSame(failure, failure.plus(InventoryFailure.empty()));
+        assertEquals(2, failure.plus(failure).getTakeRemainingItems().size());
+    }
+
+    @Test
+    void plannedPatchesCopyItemsOnlyWhenRead() {
+        int[] copies = {0};
+        MockItemOps countingOps = new MockItemOps() {
+            @Override
+            public MockItem copy(MockItem item) {
+                copies[0]++;
+                return super.copy(item);
+            }
+        };
+        Map<Integer, MockItem> inv = new java.util.LinkedHashMap<>();
+        inv.put(0, mi("apple", 10));
+        inv.put(1, mi("apple", 10));
+        inv.put(2, countingOps.empty());
+        InventorySnapshotView<MockItem> view = new InventorySnapshotView<>(
+                new MapInventoryAdapter<>(inv, countingOps.empty()), countingOps, MockItem.defaultKey);
+
+        InventoryPatch<MockItem> take = view.takeItems(mi("apple", 15));
+        InventoryPatch<MockItem> give = view.giveItems(mi("apple", 5), mi("bread", 3));
+        assertTrue(take.isSuccess());
+        assertTrue(give.isSuccess());
+        assertEquals(0, copies[0]);
+
+        assertEquals(Map.of(0, countingOps.empty(), 1, mi("apple", 5)), take.getModifiedItems());
+        assertEquals(List.of(Map.entry(0, mi("apple", 10)), Map.entry(1, mi("apple", 5))), take.getDiff());
+        assertEquals(mi("bread", 3), give.getModifiedItems().get(2));
+        assertEquals(mi("apple", 15), give.getModifiedItems().get(0));
+        assertEquals(5, copies[0]);
+        assertSame(take.getModifiedItems().get(1), take.getModifiedItems().get(1));
+    }
+
+    @Test
+    void patchesPlannedOnLiveAdaptersCopyWhilePlanning() {
+        Map<Integer, MockItem> inv = new java.util.LinkedHashMap<>();
+        inv.put(0, mi("apple", 10));
+        inv.put(1, ops.empty());
+        InventoryAdapter<MockItem> live = new OverlayInventoryAdapter<>(new MapInventoryAdapter<>(inv, ops.empty())) {
+            @Override
+            public boolean isLive() {
+                return true;
+            }
+        };
+        InventorySnapshotView<MockItem> view = new InventorySnapshotView<>(live, ops, MockItem.defaultKey);
+
+        InventoryPatch<MockItem> take = view.takeItems(mi("apple", 4));
+        InventoryPatch<MockItem> transfer = view.takeItems(mi("apple", 2)).plus(view.giveItems(mi("apple", 1)));
+        // like a server stack changed in place under its mirror
+        inv.get(0).setId("dirt");
+
+        assertEquals(Map.of(0, mi("apple", 6)), take.getModifiedItems());
+        assertEquals(List.of(Map.entry(0, mi("apple", 4))), take.getDiff());
+        assertEquals(mi("apple", 11), transfer.getModifiedItems().get(0));
+    }
+}
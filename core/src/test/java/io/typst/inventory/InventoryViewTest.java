@@ -40,6 +40,81 @@ public class InventoryViewTest {
         assertTrue(emptyView.findSlots(0, x -> true).isEmpty());
     }
 
+    @Test
+    void keyCacheComputesEachKeyOnce() {
+        LinkedHashMap<Integer, MockItem> inv = new LinkedHashMap<>();
+        inv.put(0, mi("apple", 2, 64));
+        inv.put(1, mi("dirt", 3, 64));
+        int[] calls = {0};
+        MockItemOps countingOps = new MockItemOps() {
+            @Override
+            public ItemKey getKeyFrom(MockItem item) {
+                calls[0]++;
+                return super.getKeyFrom(item);
+            }
+        };
+        InventorySnapshotView<MockItem> view = new InventorySnapshotView<>(
+                new MapInventoryAdapter<>(inv, countingOps.empty()), countingOps, emptyKey
+        ).withKeyCache();
+
+        assertEquals(2, view.countItems(new ItemKey("apple", "apple")));
+        assertEquals(3, view.countItems(new ItemKey("dirt", "dirt")));
+        assertEquals(1, view.takeItem(2, new ItemKey("apple", "apple")).getModifiedItems().size());
+        assertEquals(2, calls[0]);
+        assertSame(view, view.withKeyCache());
+
+        KeyCachingItemStackOps<MockItem> bounded = new KeyCachingItemStackOps<>(countingOps, 1);
+        bounded.getKeyFrom(inv.get(0));
+        bounded.getKeyFrom(inv.get(0));
+        bounded.getKeyFrom(inv.get(1));
+        bounded.getKeyFrom(inv.get(0));
+        assertEquals(5, calls[0]);
+    }
+
+    @Test
+    void diffContainsOnlyChangedSlots() {
+        MockItem kept = mi("stone", 5, 64);
+        LinkedHashMap<Integer, MockItem> before = new LinkedHashMap<>();
+        before.put(0, kept);
+        before.put(1, mi("apple", 10, 64));
+        before.put(2, mi("dirt", 3, 64));
+        before.put(3, ops.empty());
+        before.put(4, mi("bread", 1, 64));
+        before.put(5, mi("wood", 7, 64));
+        LinkedHashMap<Integer, MockItem> after = new LinkedHashMap<>();
+        after.put(0, kept);
+        after.put(1, mi("apple", 4, 64));
+        after.put(2, mi("sand", 3, 64));
+        after.put(3, mi("egg", 2, 64));
+        after.put(4, ops.empty());
+        after.put(5, mi("wood", 7, 64));
+
+        for (boolean sparse : new boolean[]{false, true}) {
+            InventoryPatch<MockItem> patch = viewOf(before).diff(viewOf(after), sparse);
+
+            assertEquals(Set.of(1, 2, 3, 4), patch.getModifiedItems().keySet());
+            assertEquals(mi("apple", 4, 64), patch.getModifiedItems().get(1));
+            assertTrue(ops.isEmpty(patch.getModifiedItems().get(4)));
+            assertNotSame(after.get(1), patch.getModifiedItems().get(1));
+            assertNotSame(after.get(3), patch.getModifiedItems().get(3));
+            // removals first, then additions; a replaced slot has one of each
+            assertEquals(List.of(
+                    Map.entry(1, mi("apple", 6, 64)),
+                    Map.entry(2, mi("dirt", 3, 64)),
+                    Map.entry(4, mi("bread", 1, 64)),
+                    Map.entry(2, mi("sand", 3, 64)),
+                    Map.entry(3, mi("egg", 2, 64))
+            ), patch.getDiff());
+            assertNotSame(after.get(3), patch.getDiff().get(4).getValue());
+            assertNotSame(before.get(1), patch.getDiff().get(0).getValue());
+        }
+
+        IndexedInventoryAdapter<MockItem> indexed = new IndexedInventoryAdapter<>(new MapInventoryAdapter<>(before, ops.empty()), ops);
+        InventorySnapshotView<MockItem> indexedView = new InventorySnapshotView<>(indexed, ops, emptyKey);
+        assertEquals(viewOf(before).diff(viewOf(after)).getModifiedItems(), indexedView.diff(viewOf(after), true).getModifiedItems());
+        assertTrue(indexedView.diff(viewOf(before), true).getModifiedItems().isEmpty());
+    }
+
     @Test
     void toImmutableCopiesAndNormalizesEmptySlots() {
         LinkedHashMap<Integer, MockItem> inv = new LinkedHashMap<>();
@@ -54,6 +129,71 @@ public class InventoryViewTest {
         assertEquals("apple", imm.getInventory().get(1).getId());
     }
 
+    @Test
+    void toImmutableUsesPersistentTrieForDenseSlotsOnly() {
+        LinkedHashMap<Integer, MockItem> dense = new LinkedHashMap<>();
+        dense.put(1, mi("apple", 2, 64));
+        dense.put(0, mi("dirt", 1, 64));
+        InventoryAdapter<MockItem> denseCopy = viewOf(dense).toImmutable().getInventory();
+        assertTrue(denseCopy instanceof PersistentInventoryAdapter);
+        assertEquals("dirt", denseCopy.get(0).getId());
+        assertThrows(UnsupportedOperationException.class, () -> denseCopy.set(0, ops.empty()));
+
+        LinkedHashMap<Integer, MockItem> sparse = new LinkedHashMap<>();
+        sparse.put(0, mi("apple", 2, 64));
+        sparse.put(5, mi("dirt", 1, 64));
+        InventoryAdapter<MockItem> sparseCopy = viewOf(sparse).toImmutable().getInventory();
+        assertTrue(sparseCopy instanceof MapInventoryAdapter);
+        assertEquals("dirt", sparseCopy.get(5).getId());
+    }
+
+    @Test
+    void updatedSharesUnchangedSlotsWithOlderSnapshots() {
+        LinkedHashMap<Integer, MockItem> inv = new LinkedHashMap<>();
+        for (int slot = 0; slot < 1100; slot++) {
+            inv.put(slot, mi("apple", 1 + slot % 64, 64));
+        }
+        InventorySnapshotView<MockItem> first = viewOf(inv).toImmutable();
+        assertSame(first, first.toImmutable());
+
+        InventorySnapshotView<MockItem> second = first.updated(Map.of(3, mi("dirt", 1, 64), 1099, ops.empty()));
+        InventorySnapshotView<MockItem> third = second.updated(Map.of(3, mi("sand", 2, 64)));
+
+        assertEquals(mi("apple", 4, 64), first.getInventory().get(3));
+        assertEquals(mi("dirt", 1, 64), second.getInventory().get(3));
+        assertEquals(mi("sand", 2, 64), third.getInventory().get(3));
+        assertTrue(ops.isEmpty(third.getInventory().get(1099)));
+        assertSame(first.getInventory().get(500), third.getInventory().get(500));
+        assertEquals(Set.of(3, 1099), first.diff(third).getModifiedItems().keySet());
+
+        InventoryAdapter<MockItem> grown = third.updated(Map.of(1100, mi("egg", 1, 64))).getInventory();
+        assertTrue(grown instanceof PersistentInventoryAdapter);
+        assertEquals(mi("egg", 1, 64), grown.get(1100));
+        assertEquals(mi("sand", 2, 64), grown.get(3));
+    }
+
+    @Test
+    void mutatorCopyIsDetached() {
+        LinkedHashMap<Integer, MockItem> inv = new LinkedHashMap<>();
+        inv.put(0, mi("apple", 2, 64));
+        inv.put(1, ops.empty());
+        InventoryMutator<MockItem, Object> mutator = new InventoryMutator<>(
+                new MapInventoryAdapter<>(inv, ops.empty()), ops, (entity, item) -> {
+        }, emptyKey);
+
+        InventoryMutator<MockItem, Object> copy = mutator.copy();
+        assertTrue(copy.giveItem(mi("dirt", 3, 64)));
+        assertEquals("dirt", copy.getInventory().get(1).getId());
+        assertTrue(ops.isEmpty(inv.get(1)));
+
+        // a dense copy keeps the slot range of the original, a sparse one accepts any slot
+        assertThrows(IndexOutOfBoundsException.class, () -> copy.getInventory().set(2, mi("egg", 1, 64)));
+        inv.put(5, mi("egg", 1, 64));
+        InventoryMutator<MockItem, Object> sparseCopy = mutator.copy();
+        sparseCopy.getInventory().set(9, mi("egg", 2, 64));
+        assertEquals(mi("egg", 2, 64), sparseCopy.getInventory().get(9));
+    }
+
     @Test
     void updatedOverwritesAndAddsSlots() {
         LinkedHashMap<Integer, MockItem> inv = new LinkedHashMap<>();
@@ -97,6 +237,24 @@ public class InventoryViewTest {
         assertEquals(Set.of(0, 2), k2);
     }
 
+    @Test
+    void forEachSlotVisitsInOrderAndStopsEarly() {
+        List<MockItem> list = new ArrayList<>(List.of(mi("apple", 1, 64), mi("dirt", 1, 64), mi("stone", 1, 64)));
+        InventoryAdapter<MockItem> listAdapter = new ListInventoryAdapter<>(list, ops.empty());
+        List<Integer> visited = new ArrayList<>();
+        boolean completed = listAdapter.forEachSlot((slot, item) -> {
+            visited.add(slot);
+            return !item.getId().equals("dirt");
+        });
+        assertFalse(completed);
+        assertEquals(List.of(0, 1), visited);
+
+        InventoryAdapter<MockItem> sub = new SubInventoryAdapter<>(listAdapter, ops.empty(), List.of(2));
+        List<String> ids = new ArrayList<>();
+        assertTrue(sub.forEachSlot((slot, item) -> ids.add(item.getId())));
+        assertEquals(List.of("stone"), ids);
+    }
+
     @Test
     void findSpaces_highLevelAndStackingBranches() {
         // stacking + skip when space=0
@@ -288,7 +446,32 @@ public class InventoryViewTest {
     }
 
     @Test
-    void giveItems_spacesEmptyBranch_returnsEmptyPatch() {
+    void canFitMatchesGiveItemsWithoutBuildingPatches() {
+        LinkedHashMap<Integer, MockItem> inv = new LinkedHashMap<>();
+        inv.put(0, mi("apple", 60, 64));
+        inv.put(1, ops.empty());
+        inv.put(2, mi("dirt", 64, 64));
+
+        InventorySnapshotView<MockItem> view = viewOf(inv);
+
+        assertEquals(68, view.maxFittable(mi("apple", 1, 64)));
+        assertEquals(64, view.maxFittable(mi("dirt", 1, 64)));
+        assertTrue(view.canFit(mi("apple", 68, 64)));
+        assertFalse(view.canFit(mi("apple", 69, 64)));
+        assertTrue(view.canFit(mi("apple", 4, 64), mi("dirt", 1, 64)));
+        assertFalse(view.canFit(mi("apple", 5, 64), mi("dirt", 1, 64)));
+        assertFalse(view.giveItems(mi("apple", 5, 64), mi("dirt", 1, 64)).isSuccess());
+        // nothing to give fits, although the empty give patch is not a success
+        assertTrue(view.canFit());
+        assertTrue(view.canFit(ops.empty()));
+        assertTrue(view.canFit(ops.empty(), ops.empty()));
+        assertFalse(view.giveItems().isSuccess());
+        assertFalse(view.giveItems(ops.empty()).isSuccess());
+        assertFalse(view.giveItems(ops.empty(), ops.empty()).isSuccess());
+    }
+
+    @Test
+    void giveItems_spacesEmptyBranch_reportsLeftover() {
         LinkedHashMap<Integer, MockItem> inv = new LinkedHashMap<>();
         inv.put(0, mi("apple", 64, 64));
         inv.put(1, mi("dirt", 64, 64));
@@ -298,8 +481,123 @@ public class InventoryViewTest {
         InventoryPatch<MockItem> patch = view.giveItems(mi("apple", 1, 64));
         assertTrue(patch.getModifiedItems().isEmpty());
         assertTrue(patch.getDiff().isEmpty());
-        assertTrue(patch.getFailure().isEmpty());
+        assertEquals(List.of(mi("apple", 1, 64)), patch.getFailure().getGiveLeftoverItems());
+        assertFalse(patch.isSuccess());
+    }
+
+    @Test
+    void giveItems_multipleItemsSeePreviousItems() {
+        LinkedHashMap<Integer, MockItem> inv = new LinkedHashMap<>();
+        inv.put(0, mi("apple", 60, 64));
+        inv.put(1, ops.empty());
+        inv.put(2, mi("dirt", 1, 64));
+
+        InventorySnapshotView<MockItem> view = viewOf(inv);
+
+        InventoryPatch<MockItem> patch = view.giveItems(mi("apple", 30, 64), mi("apple", 30, 64), mi("dirt", 63, 64));
+
+        assertTrue(patch.isSuccess());
+        assertEquals(64, patch.getModifiedItems().get(0).getAmount());
+        assertEquals(56, patch.getModifiedItems().get(1).getAmount());
+        assertEquals(64, patch.getModifiedItems().get(2).getAmount());
+        assertEquals(3, patch.getDiff().size());
+        assertEquals(56, patch.getDiff().get(1).getValue().getAmount());
+
+        InventoryPatch<MockItem> overflow = view.giveItems(mi("apple", 40, 64), mi("apple", 40, 64));
+        assertFalse(overflow.isSuccess());
+        assertEquals(List.of(mi("apple", 12, 64)), overflow.getFailure().getGiveLeftoverItems());
+    }
+
+    @Test
+    void takeItems_multipleItemsSeePreviousItems() {
+        LinkedHashMap<Integer, MockItem> inv = new LinkedHashMap<>();
+        inv.put(0, mi("apple", 3, 64));
+        inv.put(1, mi("dirt", 2, 64));
+        inv.put(2, mi("apple", 2, 64));
+
+        InventorySnapshotView<MockItem> view = viewOf(inv);
+
+        InventoryPatch<MockItem> patch = view.takeItems(mi("apple", 2, 64), mi("apple", 2, 64), mi("dirt", 2, 64));
+        assertTrue(patch.isSuccess());
+        assertTrue(ops.isEmpty(patch.getModifiedItems().get(0)));
+        assertTrue(ops.isEmpty(patch.getModifiedItems().get(1)));
+        assertEquals(1, patch.getModifiedItems().get(2).getAmount());
+
+        InventoryPatch<MockItem> shortage = view.takeItems(mi("apple", 3, 64), mi("apple", 3, 64));
+        assertFalse(shortage.isSuccess());
+        assertEquals(List.of(mi("apple", 1, 64)), shortage.getFailure().getTakeRemainingItems());
+    }
+
+    @Test
+    void takeItemsBucketsSlotsBySimilarityHash() {
+        LinkedHashMap<Integer, MockItem> inv = new LinkedHashMap<>();
+        List<MockItem> price = new ArrayList<>();
+        for (int slot = 0; slot < 20; slot++) {
+            inv.put(slot, mi("item" + slot % 10, 2, 64));
+        }
+        for (int kind = 0; kind < 10; kind++) {
+            price.add(mi("item" + kind, 3, 64));
+        }
+        int[] calls = {0};
+        MockItemOps countingOps = new MockItemOps() {
+            @Override
+            public boolean isSimilar(MockItem a, MockItem b) {
+                calls[0]++;
+                return super.isSimilar(a, b);
+            }
+        };
+        InventorySnapshotView<MockItem> view = new InventorySnapshotView<>(
+                new MapInventoryAdapter<>(inv, countingOps.empty()), countingOps, emptyKey
+        );
+
+        InventoryPatch<MockItem> patch = view.takeItems(price);
+
+        assertTrue(patch.isSuccess());
+        assertTrue(ops.isEmpty(patch.getModifiedItems().get(0)));
+        assertEquals(1, patch.getModifiedItems().get(10).getAmount());
+        assertEquals(20 + 9 * 2, calls[0]);
+    }
+
+    @Test
+    void requirementsAreCheckedAndTakenInOneScan() {
+        LinkedHashMap<Integer, MockItem> inv = new LinkedHashMap<>();
+        inv.put(0, mi("apple", 3, 64));
+        inv.put(1, mi("dirt", 2, 64));
+        inv.put(2, mi("apple", 2, 64));
+        inv.put(3, mi("stone", 1, 64));
+        InventorySnapshotView<MockItem> view = viewOf(inv);
+
+        ItemRequirements<MockItem> requirements = ItemRequirements.builder(ops)
+                .item(mi("apple", 4, 64))
+                .key(key("dirt"), 1)
+                .key(key("gold"), 2)
+                .build();
+        ItemRequirements.Result<MockItem> result = view.check(requirements);
+        assertFalse(result.isSatisfied());
+        assertTrue(result.isSatisfied(0));
+        assertEquals(4, result.getFound(0));
+        assertEquals(1, result.getFound(1));
+        assertEquals(2, result.getMissing(2));
+
+        InventoryPatch<MockItem> patch = view.takeItems(requirements);
         assertFalse(patch.isSuccess());
+        assertTrue(ops.isEmpty(patch.getModifiedItems().get(0)));
+        assertEquals(1, patch.getModifiedItems().get(1).getAmount());
+        assertEquals(1, patch.getModifiedItems().get(2).getAmount());
+        assertFalse(patch.getModifiedItems().containsKey(3));
+        assertEquals(List.of(mi("gold", 2, 64)), patch.getFailure().getTakeRemainingItems());
+
+        ItemRequirements<MockItem> affordable = ItemRequirements.builder(ops)
+                .item(mi("apple", 4, 64))
+                .key(key("dirt"), 2)
+                .build();
+        assertTrue(view.check(affordable).isSatisfied());
+        InventoryMutator<MockItem, Object> mutator = new InventoryMutator<>(
+                new MapInventoryAdapter<>(inv, ops.empty()), ops, (entity, item) -> {
+        }, emptyKey);
+        assertTrue(mutator.takeItems(affordable));
+        assertEquals(1, inv.get(2).getAmount());
+        assertTrue(ops.isEmpty(inv.get(1)));
     }
 
     @Test
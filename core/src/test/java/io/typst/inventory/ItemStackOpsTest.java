@@ -0,0 +1,59 @@
+package io.typst.inventory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ItemStackOpsTest {
+    private int copies = 0;
+    private final MockItemOps ops = new MockItemOps() {
+        @Override
+        public MockItem copy(MockItem item) {
+            copies++;
+            return super.copy(item);
+        }
+    };
+
+    private MockItem mi(String id, int amount) {
+        return new MockItem(id, amount, 64);
+    }
+
+    @Test
+    void collapseItemsCopiesOncePerGroup() {
+        List<MockItem> items = List.of(mi("apple", 3), mi("dirt", 2), new MockItem("apple", 5, 16), mi("dirt", 1));
+
+        assertEquals(List.of(mi("apple", 8), mi("dirt", 3)), ops.collapseItems(items));
+        assertEquals(2, copies);
+
+        MockItemOps colliding = new MockItemOps() {
+            @Override
+            public int similarityHash(MockItem item) {
+                return 0;
+            }
+        };
+        assertEquals(List.of(mi("apple", 8), mi("dirt", 3)), colliding.collapseItems(items));
+        assertEquals(List.of(mi("apple", Integer.MAX_VALUE)), ops.collapseItems(List.of(mi("apple", Integer.MAX_VALUE), mi("apple", 5))));
+
+        copies = 0;
+        assertEquals(Map.of(new ItemKey("apple", "apple"), mi("apple", 8), new ItemKey("dirt", "dirt"), mi("dirt", 3)), ops.getHeaderMapFrom(items));
+        assertEquals(2, copies);
+    }
+
+    @Test
+    void parallelCollapseMatchesSequential() {
+        MockItemOps plainOps = new MockItemOps();
+        List<MockItem> items = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            items.add(mi("item" + i % 10, 1 + i % 3));
+        }
+
+        List<MockItem> sequential = plainOps.collapseItems(items, false);
+        assertEquals(10, sequential.size());
+        assertEquals(mi("item0", 1999), sequential.get(0));
+        assertEquals(sequential, plainOps.collapseItems(items, true));
+    }
+}
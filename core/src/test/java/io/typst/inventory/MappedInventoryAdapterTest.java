@@ -0,0 +1,71 @@
+package io.typst.inventory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedInventoryAdapterTest {
+    private final MockItemOps ops = new MockItemOps() {
+        @Override
+        public void writePayload(MockItem item, ByteBuffer out) {
+            out.putInt(item.getMaxStack());
+        }
+
+        @Override
+        public MockItem readPayload(ItemKey key, int amount, ByteBuffer payload) {
+            return new MockItem(key.getId(), amount, payload.getInt());
+        }
+    };
+
+    @TempDir
+    Path dir;
+
+    private MockItem mi(String id, int amount) {
+        return new MockItem(id, amount, 64);
+    }
+
+    @Test
+    void contentsSurviveReopen() throws IOException {
+        Path file = dir.resolve("vault.inv");
+        try (MappedInventoryAdapter<MockItem> adapter = MappedInventoryAdapter.open(file, 54, ops)) {
+            InventoryMutator<MockItem, Object> mutator = new InventoryMutator<>(adapter, ops, (entity, item) -> {
+            }, MockItem.defaultKey);
+            assertTrue(mutator.giveItem(mi("apple", 100), mi("dirt", 3)));
+            assertTrue(mutator.takeItem(30, new ItemKey("apple", "apple")));
+            assertEquals(4, adapter.getVersion());
+        }
+
+        try (MappedInventoryAdapter<MockItem> adapter = MappedInventoryAdapter.open(file, 54, ops)) {
+            InventorySnapshotView<MockItem> view = new InventorySnapshotView<>(adapter, ops, MockItem.defaultKey);
+            assertEquals(70, view.countItems(new ItemKey("apple", "apple")));
+            assertEquals(Map.of(0, 34, 1, 36), view.findSlots(new ItemKey("apple", "apple"), Integer.MAX_VALUE));
+            assertEquals(mi("dirt", 3), adapter.get(2));
+            assertTrue(ops.isEmpty(adapter.get(3)));
+        }
+    }
+
+    @Test
+    void growingItemsMoveToTheEndOfThePayloadArea() throws IOException {
+        Path file = dir.resolve("vault.inv");
+        try (MappedInventoryAdapter<MockItem> adapter = MappedInventoryAdapter.open(file, 2, ops)) {
+            adapter.set(0, mi("a", 1));
+            long size = Files.size(file);
+            adapter.set(0, mi("b", 2));
+            adapter.set(0, mi("a-much-longer-item-id".repeat(20), 3));
+            adapter.set(1, mi("c", 4));
+            assertTrue(Files.size(file) > size);
+            assertEquals(mi("a-much-longer-item-id".repeat(20), 3), adapter.get(0));
+            assertEquals(mi("c", 4), adapter.get(1));
+            adapter.set(0, ops.empty());
+            assertTrue(ops.isEmpty(adapter.get(0)));
+        }
+        assertThrows(IllegalArgumentException.class, () -> MappedInventoryAdapter.open(file, 3, ops));
+    }
+}